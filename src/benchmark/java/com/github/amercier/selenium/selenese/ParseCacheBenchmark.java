@@ -0,0 +1,72 @@
+package com.github.amercier.selenium.selenese;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.amercier.selenium.exceptions.InvalidSeleneseCommandArgumentException;
+
+/**
+ * Latency of a string-match pattern or element locator lookup, without the
+ * parse cache (compile, as before {@link ParseCache}) and with it (parse),
+ * on arguments recurring as they do across test cases. Run with "-prof gc"
+ * to get the allocation per lookup (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseCacheBenchmark {
+
+	protected static final String[] PATTERNS = new String[] {
+		"glob:*/orders/*.html",
+		"regexp:^Order [0-9]+ created$",
+		"regexpi:error",
+		"exact:Welcome",
+		"Total: * EUR",
+	};
+
+	protected static final String[] LOCATORS = new String[] {
+		"id=login",
+		"name=q",
+		"link=Next",
+		"css=table.results tr:nth-child(2) td",
+		"//div[@class='menu']//a[text()='Logout']",
+	};
+
+	protected int index = 0;
+
+	protected int next() {
+		return index = (index + 1) % PATTERNS.length;
+	}
+
+	@Benchmark
+	public Object patternWithoutCache() throws InvalidSeleneseCommandArgumentException {
+		return StringMatchPattern.compile(PATTERNS[next()]);
+	}
+
+	@Benchmark
+	public Object patternWithCache() throws InvalidSeleneseCommandArgumentException {
+		return StringMatchPattern.parse(PATTERNS[next()]);
+	}
+
+	@Benchmark
+	public Object locatorWithoutCache() throws InvalidSeleneseCommandArgumentException {
+		return ElementLocator.compile(LOCATORS[next()]);
+	}
+
+	@Benchmark
+	public Object locatorWithCache() throws InvalidSeleneseCommandArgumentException {
+		return ElementLocator.parse(LOCATORS[next()]);
+	}
+}
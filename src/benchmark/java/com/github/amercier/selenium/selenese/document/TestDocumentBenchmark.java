@@ -0,0 +1,222 @@
+package com.github.amercier.selenium.selenese.document;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.github.amercier.selenium.selenese.Action;
+import com.github.amercier.selenium.selenese.SeleneseCommand;
+import com.github.amercier.selenium.selenese.SeleneseTestCase;
+import com.github.amercier.selenium.selenese.log.Log;
+
+/**
+ * Time and heap needed to read large synthetic test cases, with a DOM walk
+ * (as before {@link TableRowsHandler}) and with the SAX stream of
+ * {@link TestCaseDocument#getTestCase()}.
+ *
+ * Arguments: number of rows per test case (5000), number of test cases
+ * (10), number of measured iterations (5). For instance:
+ *
+ *     mvn -Pbenchmark test-compile exec:exec -Dexec.args="-Xmx512m -classpath %classpath com.github.amercier.selenium.selenese.document.TestDocumentBenchmark 5000 10"
+ */
+public class TestDocumentBenchmark {
+
+	/**
+	 * Log ignoring everything, so that the parsing is measured alone
+	 */
+	protected static final Log SILENT = new Log() {
+		public void debug(String message) {}
+		public void info(String message)  {}
+		public void warn(String message)  {}
+		public void error(String message) {}
+		public boolean isDebugEnabled()   { return false; }
+	};
+
+	/**
+	 * Commands of the synthetic test cases, repeated up to the number of rows
+	 */
+	protected static final String[][] COMMANDS = new String[][] {
+		{ "open"                 , "/orders/index.html"                      , ""               },
+		{ "type"                 , "id=search"                               , "order &amp; co" },
+		{ "click"                , "css=button.search"                       , ""               },
+		{ "waitForElementPresent", "//table[@id='results']//tr[2]"           , ""               },
+		{ "assertText"           , "//table[@id='results']//tr[2]/td[1]"     , "glob:Order *"   },
+		{ "click"                , "link=Next"                               , ""               },
+	};
+
+	public static void main(String[] args) throws Exception {
+		int rows       = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		int testCases  = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		File directory = File.createTempFile("selenese-benchmark", "");
+		directory.delete();
+		try {
+			List<File> files = generate(directory, rows, testCases);
+			System.out.println(testCases + " test case(s) of " + rows + " rows (" + FileUtils.byteCountToDisplaySize(files.get(0).length()) + " each)");
+
+			// Warm up
+			for(int i = 0 ; i < 2 ; i++) {
+				readWithDom(files);
+				readWithSax(files);
+			}
+
+			long[] domTimes = new long[iterations], saxTimes = new long[iterations];
+			long[] domAllocations = new long[iterations], saxAllocations = new long[iterations];
+			for(int i = 0 ; i < iterations ; i++) {
+				long allocated = getAllocatedBytes(), start = System.nanoTime();
+				readWithDom(files);
+				domTimes[i] = System.nanoTime() - start;
+				domAllocations[i] = getAllocatedBytes() - allocated;
+
+				allocated = getAllocatedBytes();
+				start = System.nanoTime();
+				readWithSax(files);
+				saxTimes[i] = System.nanoTime() - start;
+				saxAllocations[i] = getAllocatedBytes() - allocated;
+			}
+
+			// Heap retained while reading a test case: the DOM and the commands, or the commands only
+			long baseline = getUsedHeap();
+			Document document = new TestCaseDocument(files.get(0), SILENT).getDocument();
+			long domRetained = getUsedHeap() - baseline;
+			SeleneseTestCase domTestCase = walk(files.get(0), document);
+			long domPeak = getUsedHeap() - baseline;
+			document = null;
+			domTestCase = null;
+			baseline = getUsedHeap();
+			SeleneseTestCase saxTestCase = new TestCaseDocument(files.get(0), SILENT).getTestCase();
+			long saxPeak = getUsedHeap() - baseline;
+
+			System.out.println("DOM: " + getMedian(domTimes) / 1000000 + " ms, " + format(getMedian(domAllocations)) + " allocated, " + format(domPeak) + " retained per test case (" + format(domRetained) + " for the DOM)");
+			System.out.println("SAX: " + getMedian(saxTimes) / 1000000 + " ms, " + format(getMedian(saxAllocations)) + " allocated, " + format(saxPeak) + " retained per test case");
+			if(saxTestCase.getCommands().length != rows) {
+				throw new IllegalStateException("Read " + saxTestCase.getCommands().length + " commands instead of " + rows);
+			}
+		}
+		finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+
+	/**
+	 * Write the synthetic test cases
+	 * @param directory The directory to write them to
+	 * @param rows      Number of rows per test case
+	 * @param testCases Number of test cases
+	 * @return Returns the test case files
+	 * @throws IOException
+	 */
+	protected static List<File> generate(File directory, int rows, int testCases) throws IOException {
+		StringBuilder html = new StringBuilder();
+		html.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		html.append("<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\" \"http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd\">\n");
+		html.append("<html xmlns=\"http://www.w3.org/1999/xhtml\" xml:lang=\"en\" lang=\"en\">\n");
+		html.append("<head profile=\"http://selenium-ide.openqa.org/profiles/test-case\">\n");
+		html.append("<meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\" />\n");
+		html.append("<title>benchmark</title>\n");
+		html.append("</head>\n<body>\n<table cellpadding=\"1\" cellspacing=\"1\" border=\"1\">\n");
+		html.append("<thead>\n<tr><td rowspan=\"1\" colspan=\"3\">benchmark</td></tr>\n</thead><tbody>\n");
+		for(int i = 0 ; i < rows ; i++) {
+			String[] command = COMMANDS[i % COMMANDS.length];
+			html.append("<tr>\n");
+			for(String cell : command) {
+				html.append("\t<td>").append(cell).append("</td>\n");
+			}
+			html.append("</tr>\n");
+		}
+		html.append("</tbody></table>\n</body>\n</html>\n");
+
+		List<File> files = new ArrayList<File>();
+		for(int i = 0 ; i < testCases ; i++) {
+			File file = new File(directory, "benchmark" + i + ".html");
+			FileUtils.writeStringToFile(file, html.toString(), "UTF-8");
+			files.add(file);
+		}
+		return files;
+	}
+
+	protected static void readWithDom(List<File> files) throws Exception {
+		for(File file : files) {
+			walk(file, new TestCaseDocument(file, SILENT).getDocument());
+		}
+	}
+
+	protected static void readWithSax(List<File> files) throws Exception {
+		for(File file : files) {
+			new TestCaseDocument(file, SILENT).getTestCase();
+		}
+	}
+
+	/**
+	 * Read a test case from its DOM, as TestCaseDocument did before streaming it
+	 * @param file     The test case file
+	 * @param document The test case DOM
+	 * @return Returns the test case
+	 */
+	protected static SeleneseTestCase walk(File file, Document document) throws Exception {
+		NodeList tableRows = document.getElementsByTagName("tr");
+		SeleneseTestCase test = new SeleneseTestCase(file.getName().replaceAll("\\.html$", ""));
+		for (int i = 1; i < tableRows.getLength(); i++) {
+			Element tableRow = (Element) tableRows.item(i);
+			NodeList rowCells = tableRow.getElementsByTagName("td");
+			String actionName = rowCells.item(0).getTextContent();
+			List<String> arguments = new LinkedList<String>();
+			for (int j = 1; j < rowCells.getLength(); j++) {
+				if(!rowCells.item(j).getTextContent().trim().equals("")) {
+					arguments.add(rowCells.item(j).getTextContent());
+				}
+			}
+			test.addCommand(new SeleneseCommand(Action.valueOf(actionName), arguments.toArray(new String[0])));
+		}
+		return test;
+	}
+
+	/**
+	 * Get the number of bytes allocated by the current thread
+	 * @return Returns the number of bytes, or 0 if the JVM doesn't tell
+	 */
+	protected static long getAllocatedBytes() {
+		try {
+			Class<?> threadBean = Class.forName("com.sun.management.ThreadMXBean");
+			Method method = threadBean.getMethod("getThreadAllocatedBytes", long.class);
+			return (Long)method.invoke(ManagementFactory.getThreadMXBean(), Thread.currentThread().getId());
+		}
+		catch(Exception e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Get the heap used by reachable objects
+	 * @return Returns the number of bytes
+	 */
+	protected static long getUsedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for(int i = 0 ; i < 3 ; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	protected static long getMedian(long[] values) {
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+
+	protected static String format(long bytes) {
+		return bytes / 1024 + " KB";
+	}
+}
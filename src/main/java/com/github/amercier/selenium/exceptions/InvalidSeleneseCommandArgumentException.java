@@ -5,9 +5,20 @@ public class InvalidSeleneseCommandArgumentException extends Exception {
 
 	public String argument;
 	
+	/**
+	 * Why the argument is invalid, null if unknown
+	 */
+	public String reason;
+	
 	public InvalidSeleneseCommandArgumentException(String argument) {
 		super("Invalid Selenese command argument \"" + argument + "\"");
 		this.argument = argument;
 	}
 	
+	public InvalidSeleneseCommandArgumentException(String argument, String reason) {
+		super("Invalid Selenese command argument \"" + argument + "\" (" + reason + ")");
+		this.argument = argument;
+		this.reason = reason;
+	}
+	
 }
@@ -0,0 +1,35 @@
+package com.github.amercier.selenium.exceptions;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Thrown when some test case files of a test suite can't be read. All the
+ * broken files are reported at once.
+ */
+@SuppressWarnings("serial")
+public class InvalidTestSuiteException extends Exception {
+	
+	protected Map<File,Exception> errors;
+	
+	public InvalidTestSuiteException(File suiteFile, Map<File,Exception> errors) {
+		super(getMessage(suiteFile, errors), errors.values().iterator().next());
+		this.errors = errors;
+	}
+	
+	protected static String getMessage(File suiteFile, Map<File,Exception> errors) {
+		StringBuilder message = new StringBuilder(errors.size() + " test case file(s) of " + suiteFile.getName() + " can't be read:");
+		for(Map.Entry<File,Exception> error : errors.entrySet()) {
+			message.append("\n\t" + error.getKey() + ": " + error.getValue().getMessage());
+		}
+		return message.toString();
+	}
+	
+	/**
+	 * Get the errors
+	 * @return Returns the error of each broken file, in suite order
+	 */
+	public Map<File,Exception> getErrors() {
+		return errors;
+	}
+}
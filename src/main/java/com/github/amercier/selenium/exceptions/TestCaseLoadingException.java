@@ -0,0 +1,19 @@
+package com.github.amercier.selenium.exceptions;
+
+/**
+ * Thrown when the commands of a lazily loaded test case can't be read
+ */
+@SuppressWarnings("serial")
+public class TestCaseLoadingException extends Exception {
+	
+	protected String testCaseName;
+	
+	public TestCaseLoadingException(String testCaseName, Throwable cause) {
+		super("Can't load test case " + testCaseName + ": " + cause.getMessage(), cause);
+		this.testCaseName = testCaseName;
+	}
+	
+	public String getTestCaseName() {
+		return testCaseName;
+	}
+}
@@ -0,0 +1,430 @@
+package com.github.amercier.selenium.junit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Writes a JUnit XML report while the tests are running. The test runners
+ * publish their results (see {@link #publish(TestResult)}) to a queue that
+ * a single writer thread streams to the file, flushing it periodically. The
+ * closing tag is rewritten after each flush, and the counts of the test
+ * suite updated in place, so that the report of a killed build is still
+ * valid and lists all the test cases terminated so far.
+ */
+public class JUnitReportWriter implements Runnable {
+
+	/**
+	 * Default maximum delay between the end of a test case and its report
+	 */
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+	/**
+	 * Size of the buffered test cases triggering a flush, in characters
+	 */
+	protected static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Room reserved in the testsuite start tag for the counts, rewritten on each flush
+	 */
+	protected static final int COUNTS_SIZE = 128;
+
+	/**
+	 * Marks the end of the results in the queue
+	 */
+	protected static final TestResult END = new TestResult(null, null, 0, null, null);
+
+	/**
+	 * The report file
+	 */
+	protected final RandomAccessFile file;
+
+	/**
+	 * The test suite name
+	 */
+	protected String name;
+
+	/**
+	 * Maximum delay between the end of a test case and its report, in milliseconds
+	 */
+	protected final long flushInterval;
+
+	/**
+	 * Results waiting to be written
+	 */
+	protected final BlockingQueue<TestResult> queue;
+
+	/**
+	 * Counts of the written test cases
+	 */
+	protected final AtomicInteger tests, failures, errors;
+
+	/**
+	 * Position of the counts in the testsuite start tag
+	 */
+	protected long countsPosition;
+
+	/**
+	 * Position of the testsuite end tag, where the next test cases are written
+	 */
+	protected long end;
+
+	protected long startTime;
+
+	/**
+	 * Output of the whole test suite to the standard output, written on close
+	 */
+	protected volatile String systemOutput;
+
+	/**
+	 * Output of the whole test suite to the standard error, written on close
+	 */
+	protected volatile String systemError;
+
+	/**
+	 * The writer thread
+	 */
+	protected Thread thread;
+
+	/**
+	 * First error of the writer thread, reported on close
+	 */
+	protected volatile IOException error;
+
+	/**
+	 * Create a JUnit report writer
+	 * @param file          The report file, created or overwritten
+	 * @param flushInterval Maximum delay between the end of a test case and its report, in milliseconds
+	 * @throws IOException if the file can't be created
+	 */
+	public JUnitReportWriter(File file, long flushInterval) throws IOException {
+		if(file.getParentFile() != null) {
+			FileUtils.forceMkdir(file.getParentFile());
+		}
+		this.file = new RandomAccessFile(file, "rw");
+		this.flushInterval = Math.max(1, flushInterval);
+		this.queue = new LinkedBlockingQueue<TestResult>();
+		this.tests = new AtomicInteger();
+		this.failures = new AtomicInteger();
+		this.errors = new AtomicInteger();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getFlushInterval() {
+		return flushInterval;
+	}
+
+	public int getTests() {
+		return tests.get();
+	}
+
+	public int getFailures() {
+		return failures.get();
+	}
+
+	public int getErrors() {
+		return errors.get();
+	}
+
+	/**
+	 * Set the output of the whole test suite to the standard output
+	 * @param systemOutput The output, written on close
+	 */
+	public void setSystemOutput(String systemOutput) {
+		this.systemOutput = systemOutput;
+	}
+
+	/**
+	 * Set the output of the whole test suite to the standard error
+	 * @param systemError The output, written on close
+	 */
+	public void setSystemError(String systemError) {
+		this.systemError = systemError;
+	}
+
+	/**
+	 * Write the start of the report and start the writer thread
+	 * @param name The test suite name
+	 * @throws IOException
+	 */
+	public synchronized void start(String name) throws IOException {
+		this.name = name;
+		startTime = System.currentTimeMillis();
+		StringBuilder header = new StringBuilder();
+		header.append("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n");
+		header.append("<testsuite");
+		attribute(header, "name", name == null ? "unknown" : name);
+		attribute(header, "timestamp", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date(startTime)));
+		attribute(header, "hostname", getHostname());
+		file.setLength(0);
+		file.write(header.toString().getBytes("UTF-8"));
+		countsPosition = file.getFilePointer();
+		file.write(getCounts().getBytes("UTF-8"));
+		file.write(">\n  <properties />\n".getBytes("UTF-8"));
+		end = file.getFilePointer();
+		file.write(getFooter(false).getBytes("UTF-8"));
+
+		thread = new Thread(this, "selenese-report-writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Publish the result of a test case. Can be called from any thread.
+	 * @param result The result
+	 */
+	public void publish(TestResult result) {
+		if(error == null) {
+			queue.add(result);
+		}
+	}
+
+	/**
+	 * Write the remaining test cases and the end of the report, and close the file
+	 * @throws IOException if the report could not be written
+	 */
+	public void close() throws IOException {
+		try {
+			if(thread != null) {
+				queue.add(END);
+				thread.join();
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing the report");
+		}
+		finally {
+			file.close();
+		}
+		if(error != null) {
+			throw error;
+		}
+	}
+
+	/**
+	 * Stream the published results to the file
+	 */
+	public void run() {
+		StringBuilder buffer = new StringBuilder();
+		long lastFlush = System.currentTimeMillis();
+		boolean closed = false;
+		try {
+			while(!closed) {
+				TestResult result = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+				if(result == END) {
+					closed = true;
+				}
+				else if(result != null) {
+					append(buffer, result);
+				}
+				long now = System.currentTimeMillis();
+				if(closed || buffer.length() >= BUFFER_SIZE || (buffer.length() > 0 && now - lastFlush >= flushInterval)) {
+					flush(buffer, closed);
+					buffer.setLength(0);
+					lastFlush = now;
+				}
+			}
+		}
+		catch(InterruptedException e) {
+			error = new IOException("Interrupted while writing the report");
+		}
+		catch(IOException e) {
+			error = e;
+			queue.clear();
+		}
+	}
+
+	/**
+	 * Write the buffered test cases in place of the end tag, then the end tag and the updated counts
+	 * @param buffer The buffered test cases
+	 * @param closed Whether this is the last flush
+	 * @throws IOException
+	 */
+	protected void flush(StringBuilder buffer, boolean closed) throws IOException {
+		file.seek(end);
+		file.write(buffer.toString().getBytes("UTF-8"));
+		end = file.getFilePointer();
+		file.write(getFooter(closed).getBytes("UTF-8"));
+		file.setLength(file.getFilePointer());
+		file.seek(countsPosition);
+		file.write(getCounts().getBytes("UTF-8"));
+	}
+
+	/**
+	 * Append a test case element
+	 * @param buffer The buffer
+	 * @param result The test case result
+	 */
+	protected void append(StringBuilder buffer, TestResult result) {
+		tests.incrementAndGet();
+		buffer.append("  <testcase");
+		attribute(buffer, "classname", result.getClassName());
+		attribute(buffer, "name", result.getName() == null ? "unknown" : result.getName());
+		attribute(buffer, "time", "" + (result.getDuration() / 1000.0));
+		if(result.getOutcome() == TestResult.Outcome.SUCCESS && result.getProperties().isEmpty() && result.getSystemOutput() == null && result.getSystemError() == null) {
+			buffer.append(" />\n");
+			return;
+		}
+		buffer.append(">\n");
+		if(!result.getProperties().isEmpty()) {
+			buffer.append("    <properties>\n");
+			for(Map.Entry<String,String> property : result.getProperties().entrySet()) {
+				buffer.append("      <property");
+				attribute(buffer, "name", property.getKey());
+				attribute(buffer, "value", property.getValue());
+				buffer.append(" />\n");
+			}
+			buffer.append("    </properties>\n");
+		}
+		if(result.getOutcome() != TestResult.Outcome.SUCCESS) {
+			String element;
+			if(result.getOutcome() == TestResult.Outcome.FAILURE) {
+				failures.incrementAndGet();
+				element = "failure";
+			}
+			else {
+				errors.incrementAndGet();
+				element = "error";
+			}
+			buffer.append("    <").append(element);
+			if(result.getMessage() != null && result.getMessage().length() > 0) {
+				attribute(buffer, "message", result.getMessage());
+			}
+			attribute(buffer, "type", result.getType());
+			buffer.append(">");
+			escape(buffer, result.getTrace(), false);
+			buffer.append("</").append(element).append(">\n");
+		}
+		if(result.getSystemOutput() != null) {
+			buffer.append("    ");
+			cdata(buffer, "system-out", result.getSystemOutput());
+		}
+		if(result.getSystemError() != null) {
+			buffer.append("    ");
+			cdata(buffer, "system-err", result.getSystemError());
+		}
+		buffer.append("  </testcase>\n");
+	}
+
+	/**
+	 * Get the counts attributes of the testsuite element, padded to {@link #COUNTS_SIZE}
+	 * @return Returns the attributes
+	 */
+	protected String getCounts() {
+		StringBuilder counts = new StringBuilder();
+		attribute(counts, "tests", "" + tests.get());
+		attribute(counts, "failures", "" + failures.get());
+		attribute(counts, "errors", "" + errors.get());
+		attribute(counts, "time", "" + ((System.currentTimeMillis() - startTime) / 1000.0));
+		while(counts.length() < COUNTS_SIZE) {
+			counts.append(' ');
+		}
+		return counts.toString();
+	}
+
+	/**
+	 * Get the end of the report
+	 * @param closed Whether to include the standard output and error
+	 * @return Returns the end of the report
+	 */
+	protected String getFooter(boolean closed) {
+		StringBuilder footer = new StringBuilder();
+		if(closed && systemOutput != null) {
+			footer.append("  ");
+			cdata(footer, "system-out", systemOutput);
+		}
+		if(closed && systemError != null) {
+			footer.append("  ");
+			cdata(footer, "system-err", systemError);
+		}
+		return footer.append("</testsuite>\n").toString();
+	}
+
+	/**
+	 * Append an element containing a CDATA section
+	 * @param buffer  The buffer
+	 * @param element The element name
+	 * @param text    The text
+	 */
+	protected static void cdata(StringBuilder buffer, String element, String text) {
+		buffer.append('<').append(element).append("><![CDATA[").append(removeInvalidCharacters(text).replace("]]>", "]]]]><![CDATA[>")).append("]]></").append(element).append(">\n");
+	}
+
+	/**
+	 * get the local hostname
+	 *
+	 * @return the name of the local host, or "localhost" if we cannot work it
+	 *         out
+	 */
+	protected static String getHostname() {
+		try {
+			return InetAddress.getLocalHost().getHostName();
+		}
+		catch(UnknownHostException e) {
+			return "localhost";
+		}
+	}
+
+	protected static void attribute(StringBuilder buffer, String name, String value) {
+		buffer.append(' ').append(name).append("=\"");
+		escape(buffer, value, true);
+		buffer.append('"');
+	}
+
+	/**
+	 * Append an escaped text, invalid XML characters being removed
+	 * @param buffer    The buffer
+	 * @param text      The text, null for none
+	 * @param attribute Whether the text is an attribute value
+	 */
+	protected static void escape(StringBuilder buffer, String text, boolean attribute) {
+		if(text == null) {
+			return;
+		}
+		for(int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch(c) {
+				case '&': buffer.append("&amp;"); break;
+				case '<': buffer.append("&lt;"); break;
+				case '>': buffer.append("&gt;"); break;
+				case '"': buffer.append(attribute ? "&quot;" : "\""); break;
+				case '\n': buffer.append(attribute ? "&#10;" : "\n"); break;
+				case '\r': buffer.append(attribute ? "&#13;" : "\r"); break;
+				case '\t': buffer.append(attribute ? "&#9;" : "\t"); break;
+				default:
+					if(isValid(c)) {
+						buffer.append(c);
+					}
+			}
+		}
+	}
+
+	protected static String removeInvalidCharacters(String text) {
+		StringBuilder result = new StringBuilder(text.length());
+		for(int i = 0; i < text.length(); i++) {
+			if(isValid(text.charAt(i))) {
+				result.append(text.charAt(i));
+			}
+		}
+		return result.toString();
+	}
+
+	protected static boolean isValid(char c) {
+		return c == '\t' || c == '\n' || c == '\r' || (c >= 0x20 && c <= 0xFFFD);
+	}
+}
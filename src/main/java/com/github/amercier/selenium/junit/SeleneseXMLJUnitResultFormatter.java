@@ -1,5 +0,0 @@
-package com.github.amercier.selenium.junit;
-
-public class SeleneseXMLJUnitResultFormatter extends XMLJUnitResultFormatter {
-
-}
@@ -0,0 +1,153 @@
+package com.github.amercier.selenium.junit;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable result of a test case, published by the test runners to the
+ * {@link JUnitReportWriter}
+ */
+public class TestResult {
+
+	/**
+	 * The outcome of a test case
+	 */
+	public enum Outcome { SUCCESS, FAILURE, ERROR }
+
+	protected final String className;
+	protected final String name;
+	protected final long duration;
+	protected final Outcome outcome;
+
+	/**
+	 * Class name of the failure or error, null on success
+	 */
+	protected final String type;
+
+	/**
+	 * Message of the failure or error, null if none
+	 */
+	protected final String message;
+
+	/**
+	 * Stack trace of the failure or error, null on success
+	 */
+	protected final String trace;
+
+	/**
+	 * Properties of the test case
+	 */
+	protected final Map<String,String> properties;
+
+	/**
+	 * Output of the test case to the standard output, null if none
+	 */
+	protected final String systemOutput;
+
+	/**
+	 * Output of the test case to the standard error, null if none
+	 */
+	protected final String systemError;
+
+	/**
+	 * Create a test result
+	 * @param className The class name, usually the test suite name
+	 * @param name      The test case name
+	 * @param duration  The duration in milliseconds
+	 * @param outcome   The outcome
+	 * @param cause     The failure or error, null on success
+	 */
+	public TestResult(String className, String name, long duration, Outcome outcome, Throwable cause) {
+		this(className, name, duration, outcome, cause, null, null);
+	}
+
+	/**
+	 * Create a test result
+	 * @param className    The class name, usually the test suite name
+	 * @param name         The test case name
+	 * @param duration     The duration in milliseconds
+	 * @param outcome      The outcome
+	 * @param cause        The failure or error, null on success
+	 * @param properties   The properties of the test case, null if none
+	 * @param systemOutput The output of the test case, null if none
+	 */
+	public TestResult(String className, String name, long duration, Outcome outcome, Throwable cause, Map<String,String> properties, String systemOutput) {
+		this(className, name, duration, outcome, cause, properties, systemOutput, null);
+	}
+
+	/**
+	 * Create a test result
+	 * @param className    The class name, usually the test suite name
+	 * @param name         The test case name
+	 * @param duration     The duration in milliseconds
+	 * @param outcome      The outcome
+	 * @param cause        The failure or error, null on success
+	 * @param properties   The properties of the test case, null if none
+	 * @param systemOutput The output of the test case, null if none
+	 * @param systemError  The error output of the test case, null if none
+	 */
+	public TestResult(String className, String name, long duration, Outcome outcome, Throwable cause, Map<String,String> properties, String systemOutput, String systemError) {
+		this.className = className;
+		this.name = name;
+		this.duration = duration;
+		this.outcome = outcome;
+		if(cause == null) {
+			this.type = null;
+			this.message = null;
+			this.trace = null;
+		}
+		else {
+			StringWriter trace = new StringWriter();
+			cause.printStackTrace(new PrintWriter(trace));
+			this.type = cause.getClass().getName();
+			this.message = cause.getMessage();
+			this.trace = trace.toString();
+		}
+		this.properties = properties == null ? Collections.<String,String>emptyMap() : Collections.unmodifiableMap(new LinkedHashMap<String,String>(properties));
+		this.systemOutput = systemOutput;
+		this.systemError = systemError;
+	}
+
+	public String getClassName() {
+		return className;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getDuration() {
+		return duration;
+	}
+
+	public Outcome getOutcome() {
+		return outcome;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public String getTrace() {
+		return trace;
+	}
+
+	public Map<String,String> getProperties() {
+		return properties;
+	}
+
+	public String getSystemOutput() {
+		return systemOutput;
+	}
+
+	public String getSystemError() {
+		return systemError;
+	}
+}
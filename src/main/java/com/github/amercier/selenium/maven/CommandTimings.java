@@ -0,0 +1,248 @@
+package com.github.amercier.selenium.maven;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.github.amercier.selenium.selenese.Action;
+import com.github.amercier.selenium.selenese.ArgumentType;
+import com.github.amercier.selenium.selenese.CompiledCommand;
+
+/**
+ * Durations of the executed commands, per action and per element locator.
+ * The time of each command is split into:
+ *
+ * - sleep: commandInterval and pause commands
+ * - wait: waitFor commands and page synchronization (autoSynchronize)
+ * - round trips: the other WebDriver calls
+ * - local: the rest, spent in the plugin itself
+ *
+ * A runner records its own commands without allocating anything but the
+ * first record of each locator; the timings of the runners are then added
+ * up (see {@link #add(CommandTimings)}).
+ */
+public class CommandTimings {
+
+	/**
+	 * A part of the command durations
+	 */
+	public enum Phase { LOCAL, ROUND_TRIPS, WAIT, SLEEP }
+
+	/**
+	 * Durations of the commands, by action ordinal
+	 */
+	protected final TimingHistogram[] actions;
+
+	/**
+	 * Sum of the phases of the commands, by action ordinal then phase ordinal, in microseconds
+	 */
+	protected final long[][] phases;
+
+	/**
+	 * Durations of the commands acting on elements, by raw locator
+	 */
+	protected final Map<String,TimingHistogram> locators;
+
+	public CommandTimings() {
+		this.actions = new TimingHistogram[Action.values().length];
+		this.phases = new long[Action.values().length][Phase.values().length];
+		for(int i = 0; i < actions.length; i++) {
+			actions[i] = new TimingHistogram();
+		}
+		this.locators = new LinkedHashMap<String,TimingHistogram>();
+	}
+
+	/**
+	 * Record the execution of a command
+	 * @param command    The command
+	 * @param total      Duration of the whole command, in nanoseconds
+	 * @param roundTrips Time spent in WebDriver calls outside waits and pauses, in nanoseconds
+	 * @param wait       Time spent waiting, in nanoseconds
+	 * @param sleep      Time spent sleeping, in nanoseconds
+	 */
+	public void record(CompiledCommand command, long total, long roundTrips, long wait, long sleep) {
+		int action = command.getAction().ordinal();
+		long[] phases = this.phases[action];
+		phases[Phase.ROUND_TRIPS.ordinal()] += roundTrips / 1000;
+		phases[Phase.WAIT.ordinal()] += wait / 1000;
+		phases[Phase.SLEEP.ordinal()] += sleep / 1000;
+		phases[Phase.LOCAL.ordinal()] += Math.max(0, total - roundTrips - wait - sleep) / 1000;
+		actions[action].add(total / 1000);
+
+		if(command.getAction().getArgumentsCount() > 0 && command.getAction().getArgumentType(0) == ArgumentType.ELEMENT) {
+			String locator = command.getCommand().getRawArgument(0);
+			TimingHistogram histogram = locators.get(locator);
+			if(histogram == null) {
+				histogram = new TimingHistogram();
+				locators.put(locator, histogram);
+			}
+			histogram.add(total / 1000);
+		}
+	}
+
+	/**
+	 * Add the timings of another runner
+	 * @param timings The other timings
+	 */
+	public synchronized void add(CommandTimings timings) {
+		for(int i = 0; i < actions.length; i++) {
+			actions[i].add(timings.actions[i]);
+			for(int j = 0; j < phases[i].length; j++) {
+				phases[i][j] += timings.phases[i][j];
+			}
+		}
+		for(Map.Entry<String,TimingHistogram> entry : timings.locators.entrySet()) {
+			TimingHistogram histogram = locators.get(entry.getKey());
+			if(histogram == null) {
+				histogram = new TimingHistogram();
+				locators.put(entry.getKey(), histogram);
+			}
+			histogram.add(entry.getValue());
+		}
+	}
+
+	public TimingHistogram getHistogram(Action action) {
+		return actions[action.ordinal()];
+	}
+
+	public Map<String,TimingHistogram> getLocators() {
+		return locators;
+	}
+
+	/**
+	 * Get the time spent in a phase by the commands of an action
+	 * @param action The action
+	 * @param phase  The phase
+	 * @return Returns the time in microseconds
+	 */
+	public long getPhase(Action action, Phase phase) {
+		return phases[action.ordinal()][phase.ordinal()];
+	}
+
+	/**
+	 * Get the time spent in a phase by all the commands
+	 * @param phase The phase
+	 * @return Returns the time in microseconds
+	 */
+	public long getPhase(Phase phase) {
+		long time = 0;
+		for(long[] action : phases) {
+			time += action[phase.ordinal()];
+		}
+		return time;
+	}
+
+	/**
+	 * Get the timings as JUnit properties, durations in milliseconds:
+	 *
+	 *     timing.&lt;phase&gt;=&lt;time&gt;
+	 *     timing.&lt;action&gt;.count|p50|p95|max|&lt;phase&gt;=&lt;value&gt;
+	 *
+	 * @return Returns the properties, for the executed actions only
+	 */
+	public Map<String,String> toProperties() {
+		Map<String,String> properties = new LinkedHashMap<String,String>();
+		for(Phase phase : Phase.values()) {
+			properties.put("timing." + getName(phase), format(getPhase(phase)));
+		}
+		for(Action action : Action.values()) {
+			TimingHistogram histogram = getHistogram(action);
+			if(histogram.getCount() == 0) {
+				continue;
+			}
+			properties.put("timing." + action + ".count", "" + histogram.getCount());
+			properties.put("timing." + action + ".p50", format(histogram.getPercentile(50)));
+			properties.put("timing." + action + ".p95", format(histogram.getPercentile(95)));
+			properties.put("timing." + action + ".max", format(histogram.getMax()));
+			for(Phase phase : Phase.values()) {
+				properties.put("timing." + action + "." + getName(phase), format(getPhase(action, phase)));
+			}
+		}
+		return properties;
+	}
+
+	/**
+	 * Get the timings as JSON, durations in milliseconds:
+	 *
+	 *     { "local": ..., "roundTrips": ..., "wait": ..., "sleep": ...,
+	 *       "actions": { "&lt;action&gt;": { "count": ..., "total": ..., "p50": ..., "p95": ..., "max": ..., "local": ..., ... }, ... },
+	 *       "locators": { "&lt;locator&gt;": { "count": ..., "total": ..., "p50": ..., "p95": ..., "max": ... }, ... } }
+	 *
+	 * @return Returns the JSON object
+	 * @throws JSONException
+	 */
+	public synchronized JSONObject toJSON() throws JSONException {
+		JSONObject json = new JSONObject();
+		for(Phase phase : Phase.values()) {
+			json.put(getName(phase), getPhase(phase) / 1000.0);
+		}
+		JSONObject actions = new JSONObject();
+		for(Action action : Action.values()) {
+			if(getHistogram(action).getCount() > 0) {
+				JSONObject timing = toJSON(getHistogram(action));
+				for(Phase phase : Phase.values()) {
+					timing.put(getName(phase), getPhase(action, phase) / 1000.0);
+				}
+				actions.put(action.toString(), timing);
+			}
+		}
+		json.put("actions", actions);
+		JSONObject locators = new JSONObject();
+		for(Map.Entry<String,TimingHistogram> entry : this.locators.entrySet()) {
+			locators.put(entry.getKey(), toJSON(entry.getValue()));
+		}
+		json.put("locators", locators);
+		return json;
+	}
+
+	protected static JSONObject toJSON(TimingHistogram histogram) throws JSONException {
+		JSONObject json = new JSONObject();
+		json.put("count", histogram.getCount());
+		json.put("total", histogram.getTotal() / 1000.0);
+		json.put("p50", histogram.getPercentile(50) / 1000.0);
+		json.put("p95", histogram.getPercentile(95) / 1000.0);
+		json.put("max", histogram.getMax() / 1000.0);
+		return json;
+	}
+
+	/**
+	 * Get a summary of the timings, one line per executed action
+	 */
+	@Override
+	public synchronized String toString() {
+		StringBuilder summary = new StringBuilder();
+		for(Action action : Action.values()) {
+			TimingHistogram histogram = getHistogram(action);
+			if(histogram.getCount() == 0) {
+				continue;
+			}
+			summary.append(action).append(": ").append(histogram.getCount()).append(" command(s)")
+			       .append(", p50 ").append(format(histogram.getPercentile(50)))
+			       .append(" ms, p95 ").append(format(histogram.getPercentile(95)))
+			       .append(" ms, max ").append(format(histogram.getMax())).append(" ms (");
+			for(Phase phase : Phase.values()) {
+				summary.append(phase.ordinal() == 0 ? "" : ", ").append(getName(phase)).append(" ").append(format(getPhase(action, phase))).append(" ms");
+			}
+			summary.append(")\n");
+		}
+		return summary.toString();
+	}
+
+	protected static String getName(Phase phase) {
+		switch(phase) {
+			case ROUND_TRIPS : return "roundTrips";
+			default          : return phase.name().toLowerCase();
+		}
+	}
+
+	/**
+	 * Format a duration
+	 * @param microseconds The duration in microseconds
+	 * @return Returns the duration in milliseconds
+	 */
+	protected static String format(long microseconds) {
+		return "" + (microseconds / 1000.0);
+	}
+}
@@ -0,0 +1,7 @@
+package com.github.amercier.selenium.maven;
+
+public interface GridCapacityListener {
+
+	void fireCapacityChanged(GridCapacityMonitor monitor);
+
+}
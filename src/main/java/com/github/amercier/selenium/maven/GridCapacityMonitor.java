@@ -0,0 +1,465 @@
+package com.github.amercier.selenium.maven;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLEncoder;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.logging.Log;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.github.amercier.selenium.ServerAddress;
+import com.github.amercier.selenium.maven.configuration.DesiredCapabilities;
+
+/**
+ * Polls the Grid Hub to know how many slots are free for each configuration.
+ *
+ * Two APIs are supported:
+ * <ul>
+ *   <li>{@link #STATUS_PATH}, which describes every slot of every node
+ *       (browser, version, platform and current session), so free slots are
+ *       counted per configuration;</li>
+ *   <li>{@link #HUB_STATUS_PATH} (Grid 2 and 3), which only gives the number
+ *       of free slots of the whole grid. The slots of each node are then read
+ *       from {@link #PROXY_STATUS_PATH}, the nodes being listed by the
+ *       {@link #CONSOLE_PATH}, so that the number of slots matching each
+ *       configuration is known (see {@link #getCapacity(DesiredCapabilities)}).
+ *       Which of them are busy is not, so the tests are dispatched on the
+ *       whole grid free slots, without exceeding the slots of their
+ *       configuration. If the nodes can't be read, only the whole grid free
+ *       slots are checked.</li>
+ * </ul>
+ * If none of them answers, the capacity is unknown and the tests are
+ * dispatched without checking the grid.
+ */
+public class GridCapacityMonitor implements Runnable {
+
+	/**
+	 * Per-slot status path
+	 */
+	public static String STATUS_PATH = "/status";
+
+	/**
+	 * Global hub status path
+	 */
+	public static String HUB_STATUS_PATH = "/grid/api/hub";
+
+	/**
+	 * Node status path (Grid 2 and 3), followed by the node identifier
+	 */
+	public static String PROXY_STATUS_PATH = "/grid/api/proxy?id=";
+
+	/**
+	 * Grid console path (Grid 2 and 3), listing the node identifiers
+	 */
+	public static String CONSOLE_PATH = "/grid/console";
+
+	/**
+	 * Node identifiers in the console: "id : http://host:port" (Grid 3) or
+	 * "listening on http://host:port" (Grid 2)
+	 */
+	protected static final Pattern CONSOLE_NODE = Pattern.compile("(?:id : |listening on )(https?://[^\\s,<'\"]+)");
+
+	/**
+	 * Number of polls between two reads of the nodes, which seldom change
+	 */
+	public static int NODES_REFRESH_POLLS = 30;
+
+	/**
+	 * A slot of a grid node
+	 */
+	protected static class Slot {
+
+		protected String browser;
+		protected String version;
+		protected String platform;
+		protected boolean busy;
+
+		public Slot(String browser, String version, String platform, boolean busy) {
+			this.browser = browser;
+			this.version = version;
+			this.platform = platform;
+			this.busy = busy;
+		}
+
+		public boolean matches(DesiredCapabilities capability) {
+			return (capability.browser == null || capability.browser.equalsIgnoreCase(browser))
+				&& (capability.version == null || version.startsWith(capability.version))
+				&& (capability.platform == null || capability.platform.equals("ANY") || platform.equals("ANY") || platform.toUpperCase().startsWith(capability.platform.toUpperCase()));
+		}
+	}
+
+	/**
+	 * A grid node, as registered to a Grid 2 or 3 hub
+	 */
+	protected static class Node {
+
+		/**
+		 * Maximum number of sessions run at the same time, all browsers included (0 means unlimited)
+		 */
+		protected int maxSession;
+
+		/**
+		 * One slot per browser instance, none of them busy
+		 */
+		protected List<Slot> slots;
+
+		public Node(int maxSession, List<Slot> slots) {
+			this.maxSession = maxSession;
+			this.slots = slots;
+		}
+
+		public int getCapacity(DesiredCapabilities capability) {
+			int matching = 0;
+			for(Slot slot : slots) {
+				if(slot.matches(capability)) {
+					matching++;
+				}
+			}
+			return maxSession > 0 ? Math.min(maxSession, matching) : matching;
+		}
+	}
+
+	/**
+	 * The grid hub address
+	 */
+	protected ServerAddress server;
+
+	/**
+	 * Delay between two consecutive polls
+	 */
+	protected long pollInterval;
+
+	/**
+	 * Log
+	 */
+	protected Log log;
+
+	/**
+	 * Slots found on the last poll, or null if the hub does not describe its slots
+	 */
+	protected List<Slot> slots;
+
+	/**
+	 * Free slots of the whole grid found on the last poll, or -1 if unknown
+	 */
+	protected int freeSlots;
+
+	/**
+	 * Nodes read from a Grid 2 or 3 hub, or null if unknown
+	 */
+	protected List<Node> nodes;
+
+	/**
+	 * Number of polls since the nodes have been read
+	 */
+	protected int nodesAge;
+
+	/**
+	 * Path that answered on the last poll, or null if none did
+	 */
+	protected String path;
+
+	/**
+	 * Whether the hub has been polled at least once
+	 */
+	protected boolean polled;
+
+	protected Set<GridCapacityListener> listeners;
+
+	/**
+	 * Create a grid capacity monitor
+	 * @param server       The grid hub address
+	 * @param pollInterval Delay between two consecutive polls
+	 * @param log          The log
+	 */
+	public GridCapacityMonitor(ServerAddress server, long pollInterval, Log log) {
+		this.server = server;
+		this.pollInterval = pollInterval;
+		this.log = log;
+		this.slots = null;
+		this.freeSlots = -1;
+		this.nodes = null;
+		this.nodesAge = 0;
+		this.path = null;
+		this.polled = false;
+		this.listeners = new HashSet<GridCapacityListener>();
+	}
+
+	public long getPollInterval() {
+		return pollInterval;
+	}
+
+	public void addListener(GridCapacityListener listener) {
+		this.listeners.add(listener);
+	}
+
+	public void removeListener(GridCapacityListener listener) {
+		this.listeners.remove(listener);
+	}
+
+	protected void fireCapacityChanged() {
+		for(GridCapacityListener listener : listeners) {
+			listener.fireCapacityChanged(this);
+		}
+	}
+
+	/**
+	 * Tell whether the free slots are known per configuration, or only for
+	 * the whole grid
+	 * @return Returns true if the free slots are known per configuration
+	 */
+	synchronized public boolean isPerConfiguration() {
+		return slots != null;
+	}
+
+	/**
+	 * Get the number of free slots matching a configuration
+	 * @param capability The configuration
+	 * @return Returns the number of free slots, or -1 if unknown (including
+	 *         when no slot at all matches the configuration)
+	 */
+	synchronized public int getFreeSlots(DesiredCapabilities capability) {
+		if(slots == null) {
+			return freeSlots;
+		}
+		int matching = 0, free = 0;
+		for(Slot slot : slots) {
+			if(slot.matches(capability)) {
+				matching++;
+				if(!slot.busy) {
+					free++;
+				}
+			}
+		}
+		return matching == 0 ? -1 : free;
+	}
+
+	/**
+	 * Get the number of slots of a configuration, busy or not, when the free
+	 * slots are only known for the whole grid (see {@link #isPerConfiguration()})
+	 * @param capability The configuration
+	 * @return Returns the number of slots matching the configuration, or -1
+	 *         if unknown (including when no node matches the configuration)
+	 */
+	synchronized public int getCapacity(DesiredCapabilities capability) {
+		if(slots != null || nodes == null) {
+			return -1;
+		}
+		int capacity = 0;
+		for(Node node : nodes) {
+			capacity += node.getCapacity(capability);
+		}
+		return capacity == 0 ? -1 : capacity;
+	}
+
+	/**
+	 * Poll the hub and update the free slots
+	 */
+	public void refresh() {
+		String previousPath;
+		boolean firstPoll;
+		synchronized(this) {
+			previousPath = path;
+			firstPoll = !polled;
+			polled = true;
+		}
+
+		try {
+			List<Slot> newSlots = parseStatus(get(STATUS_PATH));
+			synchronized(this) {
+				slots = newSlots;
+				freeSlots = -1;
+				path = STATUS_PATH;
+			}
+		}
+		catch(Exception statusException) {
+			try {
+				int newFreeSlots = parseHubStatus(get(HUB_STATUS_PATH));
+				boolean readNodes;
+				synchronized(this) {
+					slots = null;
+					freeSlots = newFreeSlots;
+					path = HUB_STATUS_PATH;
+					readNodes = nodesAge++ % NODES_REFRESH_POLLS == 0;
+				}
+				if(readNodes) {
+					refreshNodes();
+				}
+			}
+			catch(Exception hubStatusException) {
+				synchronized(this) {
+					slots = null;
+					freeSlots = -1;
+					nodes = null;
+					nodesAge = 0;
+					path = null;
+				}
+				if(previousPath != null || firstPoll) {
+					log.warn("Can't get grid capacity from " + server + " (" + hubStatusException.getMessage() + "), tests are dispatched without checking free slots");
+				}
+			}
+		}
+
+		synchronized(this) {
+			if(path != null && !path.equals(previousPath)) {
+				log.info("Reading grid capacity from " + server + path + (slots == null ? (nodes == null ? " (whole grid only)" : " (whole grid, and slots of " + nodes.size() + " node(s))") : " (per configuration)"));
+			}
+		}
+	}
+
+	/**
+	 * Read the slots of the nodes of a Grid 2 or 3 hub. If they can't be
+	 * read, only the whole grid free slots are known.
+	 */
+	protected void refreshNodes() {
+		List<Node> newNodes = new LinkedList<Node>();
+		try {
+			for(String id : parseConsole(getText(CONSOLE_PATH))) {
+				try {
+					newNodes.add(parseProxyStatus(get(PROXY_STATUS_PATH + URLEncoder.encode(id, "UTF-8"))));
+				}
+				catch(Exception e) {
+					log.debug("Can't read grid node " + id + " (" + e.getMessage() + ")");
+				}
+			}
+		}
+		catch(IOException e) {
+			log.debug("Can't list the grid nodes from " + server + CONSOLE_PATH + " (" + e.getMessage() + ")");
+		}
+		synchronized(this) {
+			if(newNodes.isEmpty() && nodes != null) {
+				log.warn("Can't read the grid nodes anymore, checking the whole grid free slots only");
+			}
+			nodes = newNodes.isEmpty() ? null : newNodes;
+		}
+	}
+
+	/**
+	 * Poll the hub every {@link #pollInterval} milliseconds until interrupted
+	 */
+	public void run() {
+		while(!Thread.currentThread().isInterrupted()) {
+			try {
+				Thread.sleep(getPollInterval());
+			}
+			catch(InterruptedException e) {
+				return;
+			}
+			refresh();
+			fireCapacityChanged();
+		}
+	}
+
+	protected JSONObject get(String path) throws IOException, JSONException {
+		return new JSONObject(getText(path));
+	}
+
+	protected String getText(String path) throws IOException {
+		URL url = new URL("http://" + server.getHostName() + ":" + server.getPort() + path);
+		URLConnection connection = url.openConnection();
+		connection.setConnectTimeout((int)getPollInterval());
+		connection.setReadTimeout((int)getPollInterval());
+		BufferedReader buffer = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+		StringBuilder rawResponse = new StringBuilder();
+		String rawResponseLine;
+		try {
+			while ((rawResponseLine = buffer.readLine()) != null) {
+				rawResponse.append(rawResponseLine).append('\n');
+			}
+		}
+		finally {
+			buffer.close();
+		}
+		return rawResponse.toString();
+	}
+
+	/**
+	 * Parse a per-slot status:
+	 *
+	 *     { "value": { "nodes": [ { "availability": "UP", "slots": [ { "stereotype": { "browserName": ..., "browserVersion": ..., "platformName": ... }, "session": ... } ] } ] } }
+	 */
+	protected List<Slot> parseStatus(JSONObject response) throws JSONException {
+		List<Slot> result = new LinkedList<Slot>();
+		JSONArray nodes = response.getJSONObject("value").getJSONArray("nodes");
+		for(int i = 0 ; i < nodes.length() ; i++) {
+			JSONObject node = nodes.getJSONObject(i);
+			boolean up = node.optString("availability", "UP").equals("UP");
+			JSONArray nodeSlots = node.getJSONArray("slots");
+			for(int j = 0 ; j < nodeSlots.length() ; j++) {
+				JSONObject slot = nodeSlots.getJSONObject(j);
+				JSONObject stereotype = slot.getJSONObject("stereotype");
+				result.add(new Slot(
+						stereotype.optString("browserName", ""),
+						stereotype.optString("browserVersion", ""),
+						stereotype.optString("platformName", ""),
+						!up || slot.optJSONObject("session") != null
+					));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Parse a hub status:
+	 *
+	 *     { "success": true, "slotCounts": { "free": ..., "total": ... }, "newSessionRequestCount": ... }
+	 */
+	protected int parseHubStatus(JSONObject response) throws JSONException {
+		if(!response.getBoolean("success")) {
+			throw new JSONException(response.optString("msg", "unsuccessful response"));
+		}
+		return Math.max(0, response.getJSONObject("slotCounts").getInt("free") - response.optInt("newSessionRequestCount"));
+	}
+
+	/**
+	 * Parse the grid console, an HTML page describing each node
+	 * @return Returns the node identifiers (their URL)
+	 */
+	protected Set<String> parseConsole(String console) {
+		Set<String> result = new LinkedHashSet<String>();
+		Matcher matcher = CONSOLE_NODE.matcher(console);
+		while(matcher.find()) {
+			result.add(matcher.group(1));
+		}
+		return result;
+	}
+
+	/**
+	 * Parse a node status, made of its registration request:
+	 *
+	 *     { "success": true, "request": { "capabilities": [ { "browserName": ..., "version": ..., "platform": ..., "maxInstances": ... } ], "configuration": { "maxSession": ... } } }
+	 */
+	protected Node parseProxyStatus(JSONObject response) throws JSONException {
+		if(!response.getBoolean("success")) {
+			throw new JSONException(response.optString("msg", "unsuccessful response"));
+		}
+		JSONObject request = response.getJSONObject("request");
+		JSONObject configuration = request.optJSONObject("configuration");
+		List<Slot> nodeSlots = new LinkedList<Slot>();
+		JSONArray capabilities = request.getJSONArray("capabilities");
+		for(int i = 0 ; i < capabilities.length() ; i++) {
+			JSONObject capability = capabilities.getJSONObject(i);
+			for(int j = capability.optInt("maxInstances", 1) ; j > 0 ; j--) {
+				nodeSlots.add(new Slot(
+						capability.optString("browserName", ""),
+						capability.optString("version", ""),
+						capability.optString("platform", "ANY"),
+						false
+					));
+			}
+		}
+		return new Node(configuration == null ? 0 : configuration.optInt("maxSession", 0), nodeSlots);
+	}
+}
@@ -1,26 +1,36 @@
 package com.github.amercier.selenium.maven;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URL;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
-import org.apache.tools.ant.taskdefs.optional.junit.XMLJUnitResultFormatter;
+import org.json.JSONException;
 import org.w3c.dom.DOMException;
 import org.xml.sax.SAXException;
 
 import com.github.amercier.selenium.ServerAddress;
 import com.github.amercier.selenium.exceptions.InvalidSeleneseCommandException;
+import com.github.amercier.selenium.exceptions.InvalidTestSuiteException;
 import com.github.amercier.selenium.exceptions.UnknownSeleneseCommandException;
+import com.github.amercier.selenium.junit.JUnitReportWriter;
+import com.github.amercier.selenium.junit.TestResult;
 import com.github.amercier.selenium.maven.configuration.DesiredCapabilities;
+import com.github.amercier.selenium.selenese.PauseMode;
+import com.github.amercier.selenium.selenese.WaitMode;
 import com.github.amercier.selenium.selenese.SeleneseTestCase;
 import com.github.amercier.selenium.selenese.SeleneseTestSuite;
+import com.github.amercier.selenium.selenese.document.TestCaseCache;
 import com.github.amercier.selenium.selenese.document.TestCaseDocument;
 import com.github.amercier.selenium.selenese.document.TestSuiteDocument;
 import com.github.amercier.selenium.selenese.log.Log;
@@ -31,8 +41,6 @@ import com.github.amercier.selenium.thread.ObservableCountDownLatch;
  * Goal which sends Selenese HTML tests to be run by a remote or local Selenium
  * 2 Server/Grid Hub
  * 
- * @todo Parameter timeout = 30000
- * @todo Parameter maxSimultaneousTests = 0
  * @todo Parameter delayBetweenTests = 0
  * 
  * @goal  integration-test
@@ -55,6 +63,52 @@ public class SeleniumHtmlClientDriverMojo extends AbstractMojo {
 	 */
 	public File testSuite;
 	
+	/**
+	 * Maximum number of test case files of the test suite parsed at the
+	 * same time. Each file is parsed once even if referenced several times,
+	 * and all the broken files are reported at once.
+	 * 
+	 * @parameter expression="${selenium.parseThreads}"
+	 */
+	public int parseThreads = TestSuiteDocument.DEFAULT_PARSE_THREADS;
+	
+	/**
+	 * Number of test cases to parse ahead of the dispatched ones (0 parses
+	 * the whole test suite before running any test). When greater than 0,
+	 * only the test suite is read before the run: each test case is parsed
+	 * when about to be dispatched, and its commands are released once it has
+	 * run on all configurations (the runs of a test case on all
+	 * configurations being dispatched together). Invalid test cases are then
+	 * only reported when they are run.
+	 * 
+	 * @parameter expression="${selenium.parseAhead}"
+	 */
+	public int parseAhead = 0;
+	
+	/**
+	 * Whether to cache the parsed test cases across builds in
+	 * parseCacheDirectory, by content hash of their file and plugin version,
+	 * so that unchanged files are not parsed again.
+	 * 
+	 * @parameter expression="${selenium.parseCache}"
+	 */
+	public boolean parseCache = true;
+	
+	/**
+	 * Directory of the parse cache (see parseCache)
+	 * 
+	 * @parameter expression="${selenium.parseCacheDirectory}" default-value="${project.build.directory}/selenese-cache"
+	 */
+	public File parseCacheDirectory;
+	
+	/**
+	 * The plugin version, invalidating the parse cache entries written by other versions
+	 * 
+	 * @parameter default-value="${plugin.version}"
+	 * @readonly
+	 */
+	public String pluginVersion;
+	
 	/**
 	 * The test case to run
 	 * 
@@ -91,7 +145,8 @@ public class SeleniumHtmlClientDriverMojo extends AbstractMojo {
 	public File resultsFile;
 	
 	/**
-	 * Delay between two consecutive commands
+	 * Delay between two consecutive commands. Ignored when autoSynchronize
+	 * is enabled, unless forceCommandInterval is enabled too.
 	 * 
 	 * @parameter expression="${selenium.commandInterval}"
 	 */
@@ -99,13 +154,249 @@ public class SeleniumHtmlClientDriverMojo extends AbstractMojo {
 	
 	
 	/**
-	 * Delay between two consecutive commands
+	 * After each interaction (open, click, type, select, ...), wait until the
+	 * page is ready instead of sleeping commandInterval: document loaded, no
+	 * pending XMLHttpRequest or fetch, no jQuery request or animation. The
+	 * time spent waiting is logged for each test case.
+	 * 
+	 * @parameter expression="${selenium.autoSynchronize}"
+	 */
+	public boolean autoSynchronize = false;
+	
+	
+	/**
+	 * Keep sleeping commandInterval between commands when autoSynchronize is
+	 * enabled
+	 * 
+	 * @parameter expression="${selenium.forceCommandInterval}"
+	 */
+	public boolean forceCommandInterval = false;
+	
+	
+	/**
+	 * Number of commands between two collections of the JavaScript errors
+	 * raised by the page (0 disables the collection). Errors are also
+	 * collected before and after opening a page, while waiting for the page
+	 * with autoSynchronize, and at the end of each test case. They are
+	 * reported in the system-err section of their test case in the results
+	 * file.
+	 * 
+	 * @parameter expression="${selenium.javascriptErrorsCheckInterval}"
+	 */
+	public int javascriptErrorsCheckInterval = 10;
+	
+	
+	/**
+	 * How the pause command waits: LOCAL sleeps on the client side without
+	 * any remote call, ASYNC_SCRIPT runs a single asynchronous script calling
+	 * setTimeout in the browser, POLLING polls the browser clock every 500 ms
+	 * (legacy behavior)
+	 * 
+	 * @parameter expression="${selenium.pauseMode}"
+	 */
+	public String pauseMode = PauseMode.LOCAL.name();
+	
+	/**
+	 * How the waitFor commands wait: ASYNC_SCRIPT waits in the browser with
+	 * a single asynchronous script resolved as soon as the condition is met,
+	 * and falls back to polling when the condition can't be evaluated there;
+	 * POLLING checks the condition remotely every waitPollInterval
+	 * milliseconds
+	 * 
+	 * @parameter expression="${selenium.waitMode}"
+	 */
+	public String waitMode = WaitMode.ASYNC_SCRIPT.name();
+	
+	/**
+	 * Initial delay between two remote checks of a waitFor condition, in
+	 * milliseconds
+	 * 
+	 * @parameter expression="${selenium.waitPollInterval}"
+	 */
+	public long waitPollInterval = 500;
+	
+	/**
+	 * Factor applied to the delay between two remote checks of a waitFor
+	 * condition after each check, up to 5 seconds (1 keeps it constant)
+	 * 
+	 * @parameter expression="${selenium.waitPollBackoff}"
+	 */
+	public double waitPollBackoff = 1;
+	
+	
+	/**
+	 * Cache the elements found by locator on the current page, so that
+	 * consecutive commands on the same element do not look it up again. The
+	 * cache is cleared after each interaction or getEval, when a location
+	 * command observes a new URL, and when a cached element is stale (the
+	 * command is then run again with fresh elements). Elements added by
+	 * scripts outside of these commands may be missed. Hits and misses are
+	 * logged for each test case.
+	 * 
+	 * @parameter expression="${selenium.elementCache}"
+	 */
+	public boolean elementCache = false;
+	
+	/**
+	 * Find the elements and their state (visibility, enabled, checked, text)
+	 * in a single script call for click, check, uncheck, type, assertText,
+	 * assertVisible and assertNotVisible, instead of one remote call per
+	 * element and per property. Visibility is computed by the script and
+	 * approximates the WebDriver one, hence this is disabled by default. The
+	 * element cache is not used by these commands.
+	 * 
+	 * @parameter expression="${selenium.scriptedElementResolution}"
+	 */
+	public boolean scriptedElementResolution = false;
+	
+	/**
+	 * Find and select the option of a select command in a single script
+	 * call, whatever the option locator (label, label=regexp:, value, index,
+	 * id), instead of looking up and reading the options one by one with
+	 * WebDriver. The selection fires input and change events. WebDriver's
+	 * Select is still used when the script fails, e.g. for a label regexp
+	 * that isn't a valid JavaScript one.
+	 * 
+	 * @parameter expression="${selenium.scriptedSelect}"
+	 */
+	public boolean scriptedSelect = true;
+	
+	
+	/**
+	 * Delay between two consecutive test case starts, while the slots are
+	 * being filled for the first time. Once a test case has terminated, the
+	 * next one is started as soon as a slot is free.
 	 * 
 	 * @parameter expression="${selenium.startInterval}"
 	 */
 	public long startInterval = 1000;
 	
 	
+	/**
+	 * Maximum number of test cases running simultaneously, all configurations
+	 * included (0 means no limit). The limit of a single configuration can be
+	 * set using its maxInstances parameter.
+	 * 
+	 * @parameter expression="${selenium.maxSimultaneousTests}"
+	 */
+	public int maxSimultaneousTests = 0;
+	
+	
+	/**
+	 * Only start a test case when the Grid Hub reports a free slot matching
+	 * its configuration. A Grid 2 or 3 hub only reports the free slots of the
+	 * whole grid: a test case is then started when the grid has a free slot
+	 * and this run doesn't already use all the slots of its configuration
+	 * registered by the nodes (other clients of the grid not being counted
+	 * per configuration). The startInterval ramp-up is then disabled, and
+	 * startDelay is only applied before retrying a session request.
+	 * 
+	 * @parameter expression="${selenium.gridAware}"
+	 */
+	public boolean gridAware = false;
+	
+	
+	/**
+	 * Delay between two consecutive polls of the Grid Hub capacity, when
+	 * gridAware is enabled
+	 * 
+	 * @parameter expression="${selenium.gridPollInterval}"
+	 */
+	public long gridPollInterval = 1000;
+	
+	
+	/**
+	 * Reuse WebDriver sessions across test cases of the same configuration,
+	 * instead of launching a new browser for each test case. The browser
+	 * state (cookies, local storage, stored variables, current page) is
+	 * reset between two test cases.
+	 * 
+	 * @parameter expression="${selenium.reuseSessions}"
+	 */
+	public boolean reuseSessions = false;
+	
+	
+	/**
+	 * Maximum number of test cases run on the same session when reuseSessions
+	 * is enabled (0 means unlimited)
+	 * 
+	 * @parameter expression="${selenium.maxSessionUses}"
+	 */
+	public int maxSessionUses = 10;
+	
+	
+	/**
+	 * File recording the duration of each test case on each configuration,
+	 * updated after each run. Set it outside the build directory to keep the
+	 * history across clean builds.
+	 * 
+	 * @parameter expression="${selenium.durationHistoryFile}" default-value="${project.build.directory}/selenese-durations.properties"
+	 */
+	public File durationHistoryFile;
+	
+	
+	/**
+	 * Start the longest test cases first, according to durationHistoryFile.
+	 * Test cases without history are estimated from their number of commands
+	 * (or from their file size when parsed ahead).
+	 * 
+	 * @parameter expression="${selenium.orderByDuration}"
+	 */
+	public boolean orderByDuration = true;
+	
+	
+	/**
+	 * Number of agents sharing the test runs (test cases on all
+	 * configurations). Runs are partitioned deterministically, round-robin
+	 * in name order (or balanced by duration, see shardByDuration). A hash of
+	 * the partition input is logged, which must be the same on all agents.
+	 * Each shard writes its results to resultsFile suffixed by "-shard" and
+	 * its index.
+	 * 
+	 * @parameter expression="${selenium.shardCount}"
+	 */
+	public int shardCount = 1;
+	
+	
+	/**
+	 * Index of this agent's shard, between 0 and shardCount - 1
+	 * 
+	 * @parameter expression="${selenium.shardIndex}"
+	 */
+	public int shardIndex = 0;
+	
+	
+	/**
+	 * Balance the shards by the durations of durationHistoryFile. All the
+	 * agents must then read the same history file (for instance fetched
+	 * before the build, then merged from the shards' histories): agents
+	 * reading different histories compute different partitions, so that
+	 * test runs are dropped or run twice.
+	 * 
+	 * @parameter expression="${selenium.shardByDuration}"
+	 */
+	public boolean shardByDuration = false;
+	
+	
+	/**
+	 * Stop the run as soon as failFastThreshold test cases have failed or
+	 * errored: no other test case is started, and the running ones are
+	 * interrupted and reported as errors.
+	 * 
+	 * @parameter expression="${selenium.failFast}"
+	 */
+	public boolean failFast = false;
+	
+	
+	/**
+	 * Number of failed or errored test cases that stops the run, when
+	 * failFast is enabled
+	 * 
+	 * @parameter expression="${selenium.failFastThreshold}"
+	 */
+	public int failFastThreshold = 1;
+	
+	
 	/**
 	 * Delay before the first command.
 	 * 
@@ -126,9 +417,94 @@ public class SeleniumHtmlClientDriverMojo extends AbstractMojo {
 	
 	
 	/**
-	 * Report formatter
+	 * Maximum duration of a test case, session creation included (0 means
+	 * unlimited). A test case exceeding it is reported as an error, and its
+	 * waitFor commands never wait beyond it.
+	 * 
+	 * @parameter expression="${selenium.testTimeout}"
+	 */
+	public long testTimeout = 0;
+	
+	
+	/**
+	 * Maximum duration of the whole run (0 means unlimited). Once exceeded,
+	 * the remaining test cases are cancelled.
+	 * 
+	 * @parameter expression="${selenium.suiteTimeout}"
+	 */
+	public long suiteTimeout = 0;
+	
+	
+	/**
+	 * Maximum delay between two consecutive commands of a test case (0 means
+	 * unlimited). A stalled test case is logged with its current command and
+	 * thread stack, reported as an error, and its slot is reclaimed. It
+	 * should be greater than waitTimeout.
+	 * 
+	 * @parameter expression="${selenium.stallTimeout}"
+	 */
+	public long stallTimeout = 0;
+	
+	
+	/**
+	 * Maximum delay between the end of a test case and its report being
+	 * written to resultsFile, in milliseconds. The report is kept valid
+	 * while the tests are running.
+	 * 
+	 * @parameter expression="${selenium.reportFlushInterval}"
+	 */
+	public long reportFlushInterval = JUnitReportWriter.DEFAULT_FLUSH_INTERVAL;
+	
+	/**
+	 * Whether to measure the time of each command, split into local
+	 * overhead, WebDriver round trips, waits and sleeps. The timings are
+	 * reported per action and per locator (count, p50, p95 and max, in
+	 * milliseconds) as properties and output of each test case in
+	 * resultsFile, and for the whole run in commandTimingsFile.
+	 * 
+	 * @parameter expression="${selenium.commandTimings}"
+	 */
+	public boolean commandTimings = false;
+	
+	/**
+	 * The JSON file to write the command timings of the whole run to (see commandTimings)
+	 * 
+	 * @parameter expression="${selenium.commandTimingsFile}" default-value="${project.build.directory}/selenese-timings.json"
+	 */
+	public File commandTimingsFile;
+	
+	/**
+	 * Whether to count the WebDriver calls sent to the grid (wire calls)
+	 * and their latency, by WebDriver command. The Selenese commands and
+	 * locators causing the most calls are reported at the end of the run
+	 * (see wireCallTopCount).
+	 * 
+	 * @parameter expression="${selenium.wireCallStatistics}"
+	 */
+	public boolean wireCallStatistics = false;
+	
+	/**
+	 * Number of Selenese commands and locators listed in the wire calls report
+	 * 
+	 * @parameter expression="${selenium.wireCallTopCount}"
 	 */
-	XMLJUnitResultFormatter formatter;
+	public int wireCallTopCount = 10;
+	
+	/**
+	 * The file to write a timeline of the run to, in the Chrome trace event
+	 * format (to be loaded in chrome://tracing or Perfetto), with a track per
+	 * grid node and runner thread, and spans for the session acquisition,
+	 * startDelay, commands, waits, screenshots and session quit. No timeline
+	 * is written if not set.
+	 * 
+	 * @parameter expression="${selenium.traceFile}"
+	 */
+	public File traceFile;
+	
+	/**
+	 * Report writer
+	 */
+	JUnitReportWriter report;
 	
 	/**
 	 * Run the tests
@@ -136,15 +512,31 @@ public class SeleniumHtmlClientDriverMojo extends AbstractMojo {
 	public void execute() throws MojoExecutionException, MojoFailureException {
 		
 		ObservableCountDownLatch<TestCaseRunner> latch = null;
-		FileOutputStream outputStream = null;
-		formatter = new XMLJUnitResultFormatter();
+		final PauseMode pauseMode;
 		try {
-			outputStream = FileUtils.openOutputStream(resultsFile);
+			pauseMode = PauseMode.valueOf(this.pauseMode.toUpperCase());
 		}
-		catch (IOException e) {
-			throw new MojoFailureException("Can't create output file", e);
+		catch(IllegalArgumentException e) {
+			throw new MojoFailureException("Invalid pauseMode " + this.pauseMode + ": must be one of LOCAL, ASYNC_SCRIPT, POLLING");
+		}
+		final WaitMode waitMode;
+		try {
+			waitMode = WaitMode.valueOf(this.waitMode.toUpperCase());
+		}
+		catch(IllegalArgumentException e) {
+			throw new MojoFailureException("Invalid waitMode " + this.waitMode + ": must be one of ASYNC_SCRIPT, POLLING");
+		}
+		if(waitPollInterval < 1 || waitPollBackoff < 1) {
+			throw new MojoFailureException("Invalid waitPollInterval " + waitPollInterval + " or waitPollBackoff " + waitPollBackoff + ": must be at least 1");
+		}
+		if(shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount) {
+			throw new MojoFailureException("Invalid shard " + shardIndex + " of " + shardCount + ": shardIndex must be between 0 and shardCount - 1");
+		}
+		// Read the durations of the previous runs
+		final TestDurationHistory history = durationHistoryFile == null ? null : new TestDurationHistory(durationHistoryFile, getLog());
+		if(history != null) {
+			history.load();
 		}
-		formatter.setOutput(outputStream);
 		
 		// Create a CountDownLatch listener that logs about test runner individual results
 		CountDownLatchListener<TestCaseRunner> testCaseLogger = new CountDownLatchListener<TestCaseRunner>() {
@@ -162,17 +554,55 @@ public class SeleniumHtmlClientDriverMojo extends AbstractMojo {
 			}
 		};
 		
+		// Time of the commands of all the runners, if measured
+		final CommandTimings runTimings = commandTimings ? new CommandTimings() : null;
+		
+		// WebDriver calls of all the runners, if counted
+		final WireCallStatistics runWireCalls = wireCallStatistics ? new WireCallStatistics() : null;
+		
 		// Create a CountDownLatch listener that update status of the 
 		CountDownLatchListener<TestCaseRunner> testReportUpdater = new CountDownLatchListener<TestCaseRunner>() {
 			public void fireCountedDown(ObservableCountDownLatch<TestCaseRunner> observableCountDownLatch, TestCaseRunner terminated) {
 				SeleneseTestCase testCase = terminated.getTestCase();
+				
+				// Add up the command timings, and forget the ones of the runner
+				CommandTimings timings = terminated.getCommandTimings();
+				Map<String,String> properties = null;
+				String systemOutput = null;
+				if(timings != null) {
+					runTimings.add(timings);
+					properties = timings.toProperties();
+					systemOutput = timings.toString();
+					terminated.setCommandTimings(null);
+				}
+				if(terminated.getWireCallStatistics() != null) {
+					runWireCalls.add(terminated.getWireCallStatistics());
+					terminated.setWireCallStatistics(null);
+				}
+				
+				// Report the JavaScript errors with the test case, and forget the ones of the runner
+				String systemError = null;
+				if(!terminated.getJavascriptErrors().isEmpty()) {
+					StringBuilder javascriptErrors = new StringBuilder();
+					for(String error : terminated.getJavascriptErrors()) {
+						javascriptErrors.append("(JavaScript error) " + error + "\n");
+					}
+					systemError = javascriptErrors.toString();
+					terminated.getJavascriptErrors().clear();
+				}
+				
 				if(testCase.hasFailed()) {
-					formatter.addFailure(terminated.getJUnitTestCase(), testCase.getFailure());
+					report.publish(new TestResult(testCase.getName(), terminated.toString(), terminated.getDuration(), TestResult.Outcome.FAILURE, testCase.getFailure(), properties, systemOutput, systemError));
 				}
 				else if(testCase.hasErrored()) {
-					formatter.addError(terminated.getJUnitTestCase(), testCase.getError());
+					report.publish(new TestResult(testCase.getName(), terminated.toString(), terminated.getDuration(), TestResult.Outcome.ERROR, testCase.getError(), properties, systemOutput, systemError));
+				}
+				else {
+					report.publish(new TestResult(testCase.getName(), terminated.toString(), terminated.getDuration(), TestResult.Outcome.SUCCESS, null, properties, systemOutput, systemError));
+				}
+				if(history != null && testCase.hasSucceeded()) {
+					history.record(terminated, terminated.getDuration());
 				}
-				formatter.endTest(terminated.getJUnitTestCase());
 			}
 		};
 		
@@ -184,122 +614,322 @@ public class SeleniumHtmlClientDriverMojo extends AbstractMojo {
 			public void info(String message)  { SeleniumHtmlClientDriverMojo.this.getLog().info(message);  }
 			public void warn(String message)  { SeleniumHtmlClientDriverMojo.this.getLog().warn(message);  }
 			public void error(String message) { SeleniumHtmlClientDriverMojo.this.getLog().error(message); }
+			public boolean isDebugEnabled()   { return SeleniumHtmlClientDriverMojo.this.getLog().isDebugEnabled(); }
 		};
 		
-		final SeleneseTestSuite suite;
-		try {
-			
-			// Check testCase XOR testSuite
-			if (testCase == null && testSuite == null) {
-				throw new RuntimeException("No testCase or testSuite file specified");
+		final TestCaseScheduler scheduler = new TestCaseScheduler(maxSimultaneousTests, gridAware ? 0 : startInterval, getLog());
+		final SessionPool sessionPool = reuseSessions ? new SessionPool(maxSessionUses, getLog()) : null;
+		scheduler.setSessionPool(sessionPool);
+		if(testTimeout > 0 || suiteTimeout > 0 || stallTimeout > 0) {
+			if(stallTimeout > 0 && stallTimeout <= waitTimeout) {
+				getLog().warn("stallTimeout (" + stallTimeout + " ms) is not greater than waitTimeout (" + waitTimeout + " ms), waitFor commands may be reported as stalled");
 			}
-			else if (testCase != null && testSuite != null) {
-				throw new RuntimeException("A testCase and testSuite file cannot both be specified");
+			scheduler.setWatchdog(new TestCaseWatchdog(scheduler, stallTimeout, suiteTimeout, getLog()));
+		}
+		
+		// Parse the test cases on demand, if enabled
+		final ExecutorService parser = testSuite != null && parseAhead > 0 ? Executors.newFixedThreadPool(Math.max(1, parseThreads), new ThreadFactory() {
+			protected int count = 0;
+			synchronized public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "selenese-parser-" + (++count));
+				thread.setDaemon(true);
+				return thread;
 			}
+		}) : null;
+		
+		final TestCaseCache testCaseCache = !parseCache || parseCacheDirectory == null || parseCacheDirectory.getPath().length() == 0 ? null : new TestCaseCache(parseCacheDirectory, pluginVersion, seleneseLog);
+		
+		// Create the report
+		try {
+			report = new JUnitReportWriter(shardCount > 1 ? TestCaseSharding.getShardFile(resultsFile, shardIndex) : resultsFile, reportFlushInterval);
+		}
+		catch (IOException e) {
+			throw new MojoFailureException("Can't create output file", e);
+		}
+		
+		// Everything started from now on is stopped or closed in the end, even if the run fails
+		TraceWriter trace = null;
+		boolean completed = false;
+		try {
 			
-			ServerAddress server = new ServerAddress(host, port);
-			
-			suite = testSuite == null ? null : new TestSuiteDocument(testSuite, seleneseLog).getTestSuite();
+			// Create the timeline, if enabled
+			if(traceFile != null) {
+				try {
+					trace = new TraceWriter(shardCount > 1 ? TestCaseSharding.getShardFile(traceFile, shardIndex) : traceFile);
+				}
+				catch (IOException e) {
+					throw new MojoFailureException("Can't create trace file", e);
+				}
+			}
 			
-			// Run either the test case (if specified) or the test suite
-			if(testSuite != null) {
-				getLog().debug("Reading test suite " + testSuite.getName());
-				formatter.startTestSuite(suite);
-				latch = new ObservableCountDownLatch<TestCaseRunner>(suite.getTestCases().length * capabilities.length);
-				latch.addListener(testCaseLogger);
-				latch.addListener(testReportUpdater);
-				latch.addListener(new CountDownLatchListener<TestCaseRunner>() {
-					public void fireCountedDown(ObservableCountDownLatch<TestCaseRunner> latch, TestCaseRunner item) {
-						SeleneseTestCase testCase = item.getTestCase();
-						if(testCase.hasFailed()) {
-							suite.setCounts(suite.runCount(), suite.failureCount() + 1, suite.errorCount());
-						}
-						else if(testCase.hasErrored()) {
-							suite.setCounts(suite.runCount(), suite.failureCount(), suite.errorCount() + 1);
-						}
-					}
-				});
+			final SeleneseTestSuite suite;
+			try {
 				
-				int testCasesCount = suite.getTestCases().length * capabilities.length;
-				getLog().info("Running " + testCasesCount + " test case" + (testCasesCount > 1 ? "s" : "") + " (" + suite.getTestCases().length + " test case" + (suite.getTestCases().length > 1 ? "s" : "") + " on " + capabilities.length + " configuration" + (capabilities.length > 1 ? "s" : "") + ") against " + baseUrl);
+				// Check testCase XOR testSuite
+				if (testCase == null && testSuite == null) {
+					throw new RuntimeException("No testCase or testSuite file specified");
+				}
+				else if (testCase != null && testSuite != null) {
+					throw new RuntimeException("A testCase and testSuite file cannot both be specified");
+				}
 				
-				for(DesiredCapabilities capability : capabilities) {
-					getLog().debug("Running test suite " + testSuite.getName() + " on config " + capability);
-					boolean first = true;
+				ServerAddress server = new ServerAddress(host, port);
+				
+				if(gridAware) {
+					scheduler.setCapacityMonitor(new GridCapacityMonitor(server, gridPollInterval, getLog()));
+				}
+				
+				// Read either the test suite or the test case (if specified)
+				if(testSuite != null) {
+					getLog().debug("Reading test suite " + testSuite.getName());
+					suite = parser == null
+						? new TestSuiteDocument(testSuite, seleneseLog).setParseThreads(parseThreads).setCache(testCaseCache).getTestSuite()
+						: new TestSuiteDocument(testSuite, seleneseLog).setCache(testCaseCache).getTestSuite(parser);
+				}
+				else {
+					getLog().debug("Reading test case " + testCase.getName());
+					SeleneseTestCase testCase = testCaseCache == null ? new TestCaseDocument(this.testCase, seleneseLog).getTestCase() : testCaseCache.getTestCase(this.testCase);
+					suite = new SeleneseTestSuite(testCase.getName());
+					suite.addTestCase(testCase);
+				}
+				
+				// Compile the test cases once for all configurations, so that invalid commands are reported before opening any session (done by the parser otherwise)
+				if(parser == null) {
 					for(SeleneseTestCase testCase : suite.getTestCases()) {
-						if(first) {
-							first = false;
+						testCase.compile();
+						for(String undefinedVariable : testCase.getUndefinedVariables()) {
+							getLog().warn("Test case " + testCase.getName() + ": " + undefinedVariable);
 						}
-						else {
-							Thread.sleep(startInterval);
-						}
-						getLog().debug("Running test case " + testCase.getName() + " on config " + capability);
-						TestCaseRunner testRunner = new TestCaseRunner(server, testCase.cloneWithoutState(), capability, baseUrl, latch, getLog(), commandInterval, startDelay, waitTimeout);
-						formatter.startTest(testRunner.getJUnitTestCase());
+					}
+				}
+				
+				// Expand the test cases on all configurations, test case by test case when parsing ahead so that each one is released soon after being loaded
+				final Map<TestCaseRunner,SeleneseTestCase> origins = new HashMap<TestCaseRunner,SeleneseTestCase>();
+				SeleneseTestCase[] testCases = suite.getTestCases();
+				for(int i = 0; i < capabilities.length; i++) {
+					for(int j = 0; j < testCases.length; j++) {
+						DesiredCapabilities capability = capabilities[parser == null ? i : (i * testCases.length + j) % capabilities.length];
+						SeleneseTestCase testCase = testCases[parser == null ? j : (i * testCases.length + j) / capabilities.length];
+						TestCaseRunner testRunner = new TestCaseRunner(server, testCase.cloneWithoutState(), capability, baseUrl, null, getLog(), autoSynchronize && !forceCommandInterval ? 0 : commandInterval, startDelay, waitTimeout);
+						testRunner.setStartDelayOnRetry(gridAware);
+						testRunner.setSessionPool(sessionPool);
+						testRunner.setTestTimeout(testTimeout);
+						testRunner.setAutoSynchronize(autoSynchronize);
+						testRunner.setJavascriptErrorsCheckInterval(javascriptErrorsCheckInterval);
+						testRunner.setPauseMode(pauseMode);
+						testRunner.setWaitMode(waitMode);
+						testRunner.setWaitPollInterval(waitPollInterval);
+						testRunner.setWaitPollBackoff(waitPollBackoff);
+						testRunner.setElementCacheEnabled(elementCache);
+						testRunner.setScriptedElementResolution(scriptedElementResolution);
+						testRunner.setScriptedSelect(scriptedSelect);
+						testRunner.setCommandTimingsEnabled(commandTimings);
+						testRunner.setWireCallStatisticsEnabled(wireCallStatistics);
+						testRunner.setTraceWriter(trace);
 						testRunners.add(testRunner);
-						testRunner.start();
-						suite.setCounts(suite.runCount() + 1, suite.failureCount(), suite.errorCount());
+						origins.put(testRunner, testCase);
 					}
 				}
-			}
-			else {
-				getLog().debug("Reading test case " + testCase.getName());
-				SeleneseTestCase testCase = new TestCaseDocument(testSuite, seleneseLog).getTestCase();
 				
-				latch = new ObservableCountDownLatch<TestCaseRunner>(capabilities.length);
+				// Keep this shard's part only
+				if(shardCount > 1) {
+					TestCaseSharding sharding = new TestCaseSharding(shardCount, getLog());
+					if(shardByDuration && history == null) {
+						getLog().warn("shardByDuration needs a durationHistoryFile, test runs are partitioned by name");
+					}
+					testRunners = sharding.select(testRunners, shardByDuration && history != null ? history.estimate(testRunners) : null, shardIndex);
+				}
+				
+				report.start(suite.getName());
+				latch = new ObservableCountDownLatch<TestCaseRunner>(testRunners.size());
 				latch.addListener(testCaseLogger);
 				latch.addListener(testReportUpdater);
 				
-				getLog().info("Running " + capabilities.length + " test case" + (capabilities.length > 1 ? "s" : "") + " (1 test case on " + capabilities.length + " configuration" + (capabilities.length > 1 ? "s" : "") + ") against " + baseUrl);
+				// Stop the run after too many unsuccessful test cases
+				if(failFast) {
+					latch.addListener(new CountDownLatchListener<TestCaseRunner>() {
+						protected int unsuccessful = 0;
+						public void fireCountedDown(ObservableCountDownLatch<TestCaseRunner> latch, TestCaseRunner item) {
+							if(item.getTestCase().hasSucceeded() || item.isCancelled()) {
+								return;
+							}
+							synchronized(this) {
+								if(++unsuccessful != Math.max(failFastThreshold, 1)) {
+									return;
+								}
+							}
+							scheduler.cancel("fail-fast after " + failFastThreshold + " unsuccessful test case" + (failFastThreshold > 1 ? "s" : ""));
+						}
+					});
+				}
 				
-				boolean first = true;
-				for(DesiredCapabilities capability : capabilities) {
-					if(first) {
-						first = false;
+				// Parse the next test cases ahead, and release the ones that have run on all configurations
+				if(parser != null) {
+					final Map<SeleneseTestCase,Integer> remainingRuns = new HashMap<SeleneseTestCase,Integer>();
+					for(TestCaseRunner testRunner : testRunners) {
+						SeleneseTestCase testCase = origins.get(testRunner);
+						remainingRuns.put(testCase, remainingRuns.containsKey(testCase) ? remainingRuns.get(testCase) + 1 : 1);
 					}
-					else {
-						Thread.sleep(startInterval);
+					latch.addListener(new CountDownLatchListener<TestCaseRunner>() {
+						public void fireCountedDown(ObservableCountDownLatch<TestCaseRunner> latch, TestCaseRunner item) {
+							SeleneseTestCase testCase = origins.get(item);
+							synchronized(remainingRuns) {
+								int remaining = remainingRuns.get(testCase) - 1;
+								remainingRuns.put(testCase, remaining);
+								if(remaining > 0) {
+									return;
+								}
+							}
+							testCase.release();
+						}
+					});
+					scheduler.addListener(new TestCaseSchedulerListener() {
+						public void fireStarted(TestCaseScheduler scheduler, TestCaseRunner runner) {
+							for(TestCaseRunner queued : scheduler.getQueued(parseAhead * capabilities.length)) {
+								queued.getTestCase().prefetch();
+							}
+						}
+					});
+				}
+				
+				// Free the grid from sessions that won't be reused anymore, once all test cases of their configuration have terminated
+				if(sessionPool != null) {
+					for(TestCaseRunner testRunner : testRunners) {
+						sessionPool.expect(testRunner.getCapability());
 					}
-					getLog().debug("Running test case " + testCase.getName() + " on config " + capability);
-					TestCaseRunner testRunner = new TestCaseRunner(server, testCase.cloneWithoutState(), capability, baseUrl, latch, getLog(), startDelay, commandInterval, waitTimeout);
-					testRunners.add(testRunner);
-					testRunner.start();
+					latch.addListener(new CountDownLatchListener<TestCaseRunner>() {
+						public void fireCountedDown(ObservableCountDownLatch<TestCaseRunner> latch, TestCaseRunner item) {
+							sessionPool.finish(item.getCapability());
+						}
+					});
 				}
+				
+				int testCasesCount = testRunners.size();
+				getLog().info("Running " + testCasesCount + " test case" + (testCasesCount > 1 ? "s" : "") + " (" + suite.getTestCases().length + " test case" + (suite.getTestCases().length > 1 ? "s" : "") + " on " + capabilities.length + " configuration" + (capabilities.length > 1 ? "s" : "") + (shardCount > 1 ? ", shard " + shardIndex + "/" + shardCount : "") + ") against " + baseUrl + (maxSimultaneousTests > 0 ? ", " + maxSimultaneousTests + " at a time" : ""));
+				
+				for(TestCaseRunner testRunner : testRunners) {
+					testRunner.setLatch(latch);
+					scheduler.submit(testRunner);
+				}
+				
+				// Start the longest test runners first
+				if(history != null && orderByDuration) {
+					Map<TestCaseRunner,Long> durations = history.estimate(testRunners);
+					
+					// Keep the runs of a test case together when parsing ahead, the sort being stable
+					if(parser != null) {
+						Map<SeleneseTestCase,Long> testCaseDurations = new HashMap<SeleneseTestCase,Long>();
+						for(TestCaseRunner testRunner : testRunners) {
+							Long duration = testCaseDurations.get(origins.get(testRunner));
+							testCaseDurations.put(origins.get(testRunner), Math.max(duration == null ? 0 : duration, durations.get(testRunner)));
+						}
+						for(TestCaseRunner testRunner : testRunners) {
+							durations.put(testRunner, testCaseDurations.get(origins.get(testRunner)));
+						}
+					}
+					scheduler.sortQueue(durations);
+				}
+				
+				// Parse the first test cases ahead
+				if(parser != null) {
+					for(TestCaseRunner queued : scheduler.getQueued((parseAhead + Math.max(maxSimultaneousTests, 1)) * capabilities.length)) {
+						queued.getTestCase().prefetch();
+					}
+				}
+				
+				// Dispatch the test runners on the available slots
+				scheduler.run();
 			}
+			catch (InterruptedException e)            {	throw new MojoFailureException(e.getMessage(), e); }
+			catch (DOMException e)                    { throw new MojoFailureException(e.getMessage(), e); }
+			catch (SAXException e)                    { throw new MojoFailureException(e.getMessage(), e); }
+			catch (IOException e)                     { throw new MojoFailureException(e.getMessage(), e); }
+			catch (UnknownSeleneseCommandException e) { throw new MojoFailureException(e.getMessage(), e); }
+			catch (InvalidSeleneseCommandException e) { throw new MojoFailureException(e.getMessage(), e); }
+			catch (InvalidTestSuiteException e)       { throw new MojoFailureException(e.getMessage(), e); }
+			catch (RuntimeException e)                { throw new MojoFailureException(e.getMessage(), e); }
+			
+			// Wait for all test runners to terminate
+			if(latch != null) {
+				try {
+					getLog().debug("Waiting for " + latch.getCount() + " test runner(s) to finish");
+					latch.await();
+				}
+				catch (InterruptedException e) {
+					throw new MojoFailureException(e.getMessage(), e);
+				}
+			}
+			getLog().debug("All test runners have been terminated");
+			if(testCaseCache != null) {
+				getLog().info("Parse cache: " + testCaseCache.getHits() + " hit(s), " + testCaseCache.getMisses() + " miss(es)");
+			}
+			scheduler.logStatistics();
+			
+			// Update the test durations
+			if(history != null) {
+				history.save();
+			}
+			
+			// Report the command timings
+			if(runTimings != null) {
+				getLog().info("Command timings:\n" + runTimings);
+				report.setSystemOutput(runTimings.toString());
+				File timingsFile = shardCount > 1 ? TestCaseSharding.getShardFile(commandTimingsFile, shardIndex) : commandTimingsFile;
+				try {
+					FileUtils.writeStringToFile(timingsFile, runTimings.toJSON().toString(2), "UTF-8");
+				}
+				catch(JSONException e) {
+					getLog().warn("Can't write the command timings to " + timingsFile + " (" + e.getMessage() + ")");
+				}
+				catch(IOException e) {
+					getLog().warn("Can't write the command timings to " + timingsFile + " (" + e.getMessage() + ")");
+				}
+			}
+			
+			// Report the WebDriver calls
+			if(runWireCalls != null) {
+				getLog().info("WebDriver calls: " + runWireCalls.toString(Math.max(wireCallTopCount, 0)));
+			}
+			
+			completed = true;
 		}
-		catch (InterruptedException e)            {	throw new MojoFailureException(e.getMessage(), e); }
-		catch (DOMException e)                    { throw new MojoFailureException(e.getMessage(), e); }
-		catch (SAXException e)                    { throw new MojoFailureException(e.getMessage(), e); }
-		catch (IOException e)                     { throw new MojoFailureException(e.getMessage(), e); }
-		catch (UnknownSeleneseCommandException e) { throw new MojoFailureException(e.getMessage(), e); }
-		catch (InvalidSeleneseCommandException e) { throw new MojoFailureException(e.getMessage(), e); }
-		catch (RuntimeException e)                { throw new MojoFailureException(e.getMessage(), e); }
-		
-		// Wait for all test runners to terminate
-		if(latch != null) {
+		finally {
+			
+			// Stop the test runners still running, if the run has failed
+			if(!completed && latch != null && latch.getCount() > 0) {
+				scheduler.cancel("build failure");
+			}
+			if(parser != null) {
+				parser.shutdownNow();
+			}
+			
+			// Close remaining sessions, if any
+			if(sessionPool != null) {
+				sessionPool.close();
+			}
+			
+			// Terminate the timeline
+			if(trace != null) {
+				try {
+					trace.close();
+					getLog().info("Timeline written to " + trace.getFile());
+				}
+				catch(IOException e) {
+					getLog().warn("Can't write the timeline to " + trace.getFile() + " (" + e.getMessage() + ")");
+				}
+			}
+			
+			// Write the end of the report
 			try {
-				getLog().debug("Waiting for " + latch.getCount() + " test runner(s) to finish");
-				latch.await();
+				report.close();
 			}
-			catch (InterruptedException e) {
-				throw new MojoFailureException(e.getMessage(), e);
+			catch (IOException e) {
+				if(completed) {
+					throw new MojoFailureException("Can't write output file", e);
+				}
+				getLog().warn("Can't write output file (" + e.getMessage() + ")");
 			}
 		}
-		getLog().debug("All test runners have been terminated");
-		
-		
-		// Close suite, if any
-		if(suite != null) {
-			formatter.endTestSuite(suite);
-		}
-		
-		// Close output stream
-		try {
-			outputStream.close();
-		}
-		catch (IOException e) {
-			throw new MojoFailureException("Can't close output file", e);
-		}
 		
 		// Throw a Mojo Exception on the first failed test runner
 		for(TestCaseRunner testRunner : testRunners) {
@@ -0,0 +1,269 @@
+package com.github.amercier.selenium.maven;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.apache.maven.plugin.logging.Log;
+
+import com.github.amercier.selenium.maven.configuration.DesiredCapabilities;
+import com.github.amercier.selenium.selenese.SeleneseWebDriver;
+
+/**
+ * A pool of WebDriver sessions, so that a session can be reused by the next
+ * test case of the same configuration instead of launching a new browser.
+ *
+ * Sessions are reset before being handed over (see
+ * {@link SeleneseWebDriver#reset()}), checked to be still alive when taken
+ * (the hub closes the sessions left inactive for too long), and closed after
+ * {@link #maxUses} test cases, when their reset fails, or once all test cases
+ * of their configuration have terminated (see
+ * {@link #expect(DesiredCapabilities)} and {@link #finish(DesiredCapabilities)}).
+ * Sessions are never closed while holding the pool lock, as closing one is a
+ * remote call.
+ */
+public class SessionPool {
+
+	/**
+	 * Maximum number of test cases run on the same session (0 means unlimited)
+	 */
+	protected int maxUses;
+
+	/**
+	 * Log
+	 */
+	protected Log log;
+
+	/**
+	 * Idle sessions, per configuration
+	 */
+	protected Map<org.openqa.selenium.remote.DesiredCapabilities,LinkedList<SeleneseWebDriver>> idle;
+
+	/**
+	 * Number of test cases run on each session
+	 */
+	protected Map<SeleneseWebDriver,Integer> uses;
+
+	/**
+	 * Configurations for which no test case remains to be run
+	 */
+	protected Set<org.openqa.selenium.remote.DesiredCapabilities> retired;
+
+	/**
+	 * Number of test cases that haven't terminated yet, per configuration
+	 */
+	protected Map<org.openqa.selenium.remote.DesiredCapabilities,Integer> outstanding;
+
+	/**
+	 * Create a session pool
+	 * @param maxUses Maximum number of test cases run on the same session (0 means unlimited)
+	 * @param log     The log
+	 */
+	public SessionPool(int maxUses, Log log) {
+		this.maxUses = maxUses;
+		this.log = log;
+		this.idle = new HashMap<org.openqa.selenium.remote.DesiredCapabilities,LinkedList<SeleneseWebDriver>>();
+		this.uses = new WeakHashMap<SeleneseWebDriver,Integer>();
+		this.retired = new HashSet<org.openqa.selenium.remote.DesiredCapabilities>();
+		this.outstanding = new HashMap<org.openqa.selenium.remote.DesiredCapabilities,Integer>();
+	}
+
+	public int getMaxUses() {
+		return maxUses;
+	}
+
+	protected LinkedList<SeleneseWebDriver> getIdle(DesiredCapabilities capability) {
+		LinkedList<SeleneseWebDriver> result = idle.get(capability.toCapabilities());
+		if(result == null) {
+			result = new LinkedList<SeleneseWebDriver>();
+			idle.put(capability.toCapabilities(), result);
+		}
+		return result;
+	}
+
+	/**
+	 * Get the number of idle sessions of a configuration
+	 * @param capability The configuration
+	 * @return Returns the number of idle sessions
+	 */
+	synchronized public int getIdleCount(DesiredCapabilities capability) {
+		return getIdle(capability).size();
+	}
+
+	/**
+	 * Take an idle session that is still alive, closing the dead ones
+	 * @param capability The configuration
+	 * @return Returns an idle session, or null if there is none
+	 */
+	public SeleneseWebDriver acquire(DesiredCapabilities capability) {
+		while(true) {
+			SeleneseWebDriver driver;
+			synchronized(this) {
+				driver = getIdle(capability).poll();
+			}
+			if(driver == null) {
+				return null;
+			}
+
+			// The hub may have closed the session while it was idle
+			try {
+				driver.getCurrentUrl();
+			}
+			catch(RuntimeException e) {
+				log.debug("Discarding session " + driver.getSessionId() + " (no longer alive: " + e.getMessage() + ")");
+				discard(driver);
+				continue;
+			}
+
+			synchronized(this) {
+				uses.put(driver, uses.containsKey(driver) ? uses.get(driver) + 1 : 1);
+			}
+			return driver;
+		}
+	}
+
+	/**
+	 * Register a session that has just been created
+	 * @param driver The session
+	 */
+	synchronized public void register(SeleneseWebDriver driver) {
+		uses.put(driver, 1);
+	}
+
+	/**
+	 * Give back a session after a test case, so that it can be reused
+	 * @param capability The configuration
+	 * @param driver     The session
+	 */
+	public void release(DesiredCapabilities capability, SeleneseWebDriver driver) {
+		boolean expired;
+		synchronized(this) {
+			Integer driverUses = uses.get(driver);
+			expired = retired.contains(capability.toCapabilities()) || (maxUses > 0 && driverUses != null && driverUses >= maxUses);
+			if(expired) {
+				uses.remove(driver);
+			}
+		}
+		if(expired) {
+			quit(driver);
+			return;
+		}
+
+		try {
+			driver.reset();
+		}
+		catch(RuntimeException e) {
+			log.debug("Discarding session " + driver.getSessionId() + " (reset failed: " + e.getMessage() + ")");
+			discard(driver);
+			return;
+		}
+
+		synchronized(this) {
+			expired = retired.contains(capability.toCapabilities());
+			if(expired) {
+				uses.remove(driver);
+			}
+			else {
+				getIdle(capability).add(driver);
+			}
+		}
+		if(expired) {
+			quit(driver);
+		}
+	}
+
+	/**
+	 * Close a session that must not be reused, typically after an
+	 * infrastructure error
+	 * @param driver The session
+	 * @return Returns true if the session has been closed, false otherwise
+	 */
+	public boolean discard(SeleneseWebDriver driver) {
+		synchronized(this) {
+			uses.remove(driver);
+		}
+		return quit(driver);
+	}
+
+	/**
+	 * Announce a test case of a configuration, so that the sessions of this
+	 * configuration are kept until it has terminated
+	 * @param capability The configuration
+	 */
+	synchronized public void expect(DesiredCapabilities capability) {
+		Integer count = outstanding.get(capability.toCapabilities());
+		outstanding.put(capability.toCapabilities(), count == null ? 1 : count + 1);
+	}
+
+	/**
+	 * Tell that a test case announced with {@link #expect(DesiredCapabilities)}
+	 * has terminated (whether it has run or not). The sessions of its
+	 * configuration are retired once all its test cases have terminated.
+	 * @param capability The configuration
+	 */
+	public void finish(DesiredCapabilities capability) {
+		int remaining;
+		synchronized(this) {
+			Integer count = outstanding.get(capability.toCapabilities());
+			remaining = count == null ? 0 : count - 1;
+			outstanding.put(capability.toCapabilities(), remaining);
+		}
+		if(remaining <= 0) {
+			retire(capability);
+		}
+	}
+
+	/**
+	 * Close the idle sessions of a configuration, and the ones that will be
+	 * released later on
+	 * @param capability The configuration
+	 */
+	public void retire(DesiredCapabilities capability) {
+		List<SeleneseWebDriver> drivers;
+		synchronized(this) {
+			retired.add(capability.toCapabilities());
+			drivers = new LinkedList<SeleneseWebDriver>(getIdle(capability));
+			getIdle(capability).clear();
+			for(SeleneseWebDriver driver : drivers) {
+				uses.remove(driver);
+			}
+		}
+		for(SeleneseWebDriver driver : drivers) {
+			quit(driver);
+		}
+	}
+
+	/**
+	 * Close all idle sessions
+	 */
+	public void close() {
+		List<SeleneseWebDriver> drivers = new LinkedList<SeleneseWebDriver>();
+		synchronized(this) {
+			for(LinkedList<SeleneseWebDriver> configurationDrivers : idle.values()) {
+				drivers.addAll(configurationDrivers);
+				configurationDrivers.clear();
+			}
+			uses.clear();
+		}
+		for(SeleneseWebDriver driver : drivers) {
+			quit(driver);
+		}
+	}
+
+	protected boolean quit(SeleneseWebDriver driver) {
+		log.debug("Closing session " + driver.getSessionId());
+		for(int retries = 0 ; retries < TestCaseRunner.CLOSE_RETRIES ; retries++) {
+			try {
+				driver.quit();
+				return true;
+			}
+			catch(RuntimeException e) {} // do nothing as we warn later
+		}
+		log.warn("Failed to close WebDriver session " + driver.getSessionId() + " after " + TestCaseRunner.CLOSE_RETRIES + " attempts");
+		return false;
+	}
+}
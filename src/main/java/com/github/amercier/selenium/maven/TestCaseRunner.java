@@ -2,10 +2,15 @@ package com.github.amercier.selenium.maven;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -33,18 +38,25 @@ import com.github.amercier.selenium.exceptions.CapabilitiesNotFoundException;
 import com.github.amercier.selenium.exceptions.ElementNotFoundException;
 import com.github.amercier.selenium.exceptions.InvalidSeleneseCommandException;
 import com.github.amercier.selenium.exceptions.SeleniumNodeNameException;
+import com.github.amercier.selenium.exceptions.TestCaseLoadingException;
 import com.github.amercier.selenium.exceptions.TooManyElementsFoundException;
 import com.github.amercier.selenium.maven.configuration.DesiredCapabilities;
+import com.github.amercier.selenium.selenese.Action;
+import com.github.amercier.selenium.selenese.CompiledCommand;
+import com.github.amercier.selenium.selenese.PauseMode;
+import com.github.amercier.selenium.selenese.WaitMode;
 import com.github.amercier.selenium.selenese.SeleneseCommand;
 import com.github.amercier.selenium.selenese.SeleneseTestCase;
 import com.github.amercier.selenium.selenese.SeleneseWebDriver;
+import com.github.amercier.selenium.selenese.WireCallListener;
 import com.github.amercier.selenium.selenese.assertions.AssertionFailedException;
 import com.github.amercier.selenium.thread.ObservableCountDownLatch;
 
 /**
- * A thread responsible of running a test case and report
+ * A task responsible of running a test case and report. Runners are executed
+ * by a {@link TestCaseScheduler}.
  */
-public class TestCaseRunner extends Thread {
+public class TestCaseRunner implements Runnable {
 	
 	/**
 	 * Remote server path
@@ -88,6 +100,186 @@ public class TestCaseRunner extends Thread {
 	 */
 	protected long startDelay;
 	
+	/**
+	 * Whether {@link #startDelay} is only applied before retrying a session
+	 * request, the free slots being checked before dispatching
+	 */
+	protected boolean startDelayOnRetry;
+	
+	/**
+	 * Whether the session request has been answered, either successfully or not
+	 */
+	protected volatile boolean sessionResolved;
+	
+	/**
+	 * Pool of reusable sessions, if any
+	 */
+	protected SessionPool sessionPool;
+	
+	/**
+	 * Start and end time of the run, in milliseconds
+	 */
+	protected volatile long startTime, endTime;
+	
+	/**
+	 * Whether to wait for the page to be ready after each interaction
+	 */
+	protected boolean autoSynchronize;
+	
+	/**
+	 * Total time spent waiting for the page to be ready, in milliseconds
+	 */
+	protected long synchronizationTime;
+	
+	/**
+	 * Whether to cache the elements found on the current page
+	 */
+	protected boolean elementCacheEnabled;
+	
+	/**
+	 * Element cache hits and misses during the run
+	 */
+	protected int elementCacheHits, elementCacheMisses;
+	
+	/**
+	 * Whether to find the elements and their state in a single script call
+	 */
+	protected boolean scriptedElementResolution;
+	
+	/**
+	 * Whether to select options with a single script call
+	 */
+	protected boolean scriptedSelect;
+	
+	/**
+	 * How the pause command waits
+	 */
+	protected PauseMode pauseMode;
+	
+	/**
+	 * How the waitFor commands wait
+	 */
+	protected WaitMode waitMode;
+	
+	/**
+	 * Initial delay between two checks of a polled waitFor condition, in milliseconds
+	 */
+	protected long waitPollInterval;
+	
+	/**
+	 * Factor applied to the polling delay after each check
+	 */
+	protected double waitPollBackoff;
+	
+	/**
+	 * Total time spent in pause commands, in milliseconds
+	 */
+	protected long pauseTime;
+	
+	/**
+	 * Whether to measure the time of each command
+	 */
+	protected boolean commandTimingsEnabled;
+	
+	/**
+	 * Time of the commands of the run, if measured
+	 */
+	protected CommandTimings commandTimings;
+	
+	/**
+	 * Whether to count the WebDriver calls of each command
+	 */
+	protected boolean wireCallStatisticsEnabled;
+	
+	/**
+	 * WebDriver calls of the run, if counted
+	 */
+	protected WireCallStatistics wireCallStatistics;
+	
+	/**
+	 * Timeline of the runs, null if not traced
+	 */
+	protected TraceWriter traceWriter;
+	
+	/**
+	 * Spans of the current run, if traced
+	 */
+	protected List<TraceWriter.Span> traceSpans;
+	
+	/**
+	 * Name of the grid node running the test case, if known
+	 */
+	protected volatile String nodeName;
+	
+	/**
+	 * Number of commands between two JavaScript errors checks (0 disables the checks)
+	 */
+	protected int javascriptErrorsCheckInterval;
+	
+	/**
+	 * JavaScript errors raised by the pages during the run
+	 */
+	protected List<String> javascriptErrors;
+	
+	/**
+	 * Maximum duration of the run, in milliseconds (0 means unlimited)
+	 */
+	protected long testTimeout;
+	
+	/**
+	 * Time of the last progress (start, session, command), in milliseconds
+	 */
+	protected volatile long lastProgress;
+	
+	/**
+	 * Command being run, if any
+	 */
+	protected volatile CompiledCommand currentCommand;
+	
+	/**
+	 * Whether the runner has been aborted (either cancelled or timed out),
+	 * and when
+	 */
+	protected volatile boolean aborted;
+	protected volatile long abortTime;
+	
+	/**
+	 * Whether the runner has been cancelled (see {@link #cancel(String)})
+	 */
+	protected volatile boolean cancelled;
+	
+	/**
+	 * Whether the runner has terminated, in which case it can't be aborted anymore
+	 */
+	protected boolean finished;
+	
+	/**
+	 * Whether the latch has been counted down for this runner
+	 */
+	protected final AtomicBoolean countedDown = new AtomicBoolean(false);
+	
+	/**
+	 * Thread running the test case, and its session, while running
+	 */
+	protected Thread thread;
+	protected SeleneseWebDriver driver;
+	
+	/**
+	 * Whether the session has been given back to the session pool, in which
+	 * case an abort must not close it anymore
+	 */
+	protected boolean sessionReleased;
+	
+	/**
+	 * Whether the session has been closed, either by the runner or by an abort
+	 */
+	protected final AtomicBoolean sessionClosed = new AtomicBoolean(false);
+	
+	/**
+	 * Lock protecting the abort state
+	 */
+	protected final Object cancelLock = new Object();
+	
 	/**
 	 * WaitFor commands Timeout
 	 */
@@ -103,11 +295,6 @@ public class TestCaseRunner extends Thread {
 	 */
 	protected Log log;
 	
-	/**
-	 * JUnit Test Case
-	 */
-	protected junit.framework.TestCase jUnitTestCase;
-	
 	/**
 	 * Create a test case runner
 	 */
@@ -128,8 +315,23 @@ public class TestCaseRunner extends Thread {
 		setLog(log);
 		setCommandInterval(commandInterval);
 		setStartDelay(startDelay);
+		setStartDelayOnRetry(false);
+		setSessionPool(null);
 		setWaitTimeout(waitTimeout);
-		setJUnitTestCase(new junit.framework.TestCase(toString()){});
+		setTestTimeout(0);
+		setAutoSynchronize(false);
+		setJavascriptErrorsCheckInterval(1);
+		setPauseMode(PauseMode.LOCAL);
+		setWaitMode(WaitMode.ASYNC_SCRIPT);
+		setWaitPollInterval(500);
+		setWaitPollBackoff(1);
+		setElementCacheEnabled(false);
+		setScriptedElementResolution(false);
+		setScriptedSelect(true);
+		setCommandTimingsEnabled(false);
+		setWireCallStatisticsEnabled(false);
+		this.javascriptErrors = new LinkedList<String>();
+		this.sessionResolved = false;
 	}
 	
 	public ServerAddress getServer() {
@@ -164,20 +366,20 @@ public class TestCaseRunner extends Thread {
 		this.baseUrl = baseUrl;
 	}
 	
-	public junit.framework.TestCase getJUnitTestCase() {
-		return jUnitTestCase;
-	}
-	
-	public void setJUnitTestCase(junit.framework.TestCase jUnitTestCase) {
-		this.jUnitTestCase = jUnitTestCase;
-	}
-	
 	protected void setError(MojoExecutionException error) {
+		if(isAborted()) {
+			getLog().debug(this + " Ignoring ERROR after abort " + error);
+			return;
+		}
 		getLog().debug(this + " Caught ERROR " + error);
 		this.getTestCase().setError(error);
 	}
 	
 	protected void setFailure(MojoFailureException failure) {
+		if(isAborted()) {
+			getLog().debug(this + " Ignoring FAILURE after abort " + failure);
+			return;
+		}
 		getLog().debug(this + " Caught FAILURE " + failure);
 		this.getTestCase().setFailure(failure);
 	}
@@ -214,6 +416,201 @@ public class TestCaseRunner extends Thread {
 		this.startDelay = startDelay;
 	}
 	
+	public boolean isStartDelayOnRetry() {
+		return startDelayOnRetry;
+	}
+	
+	public void setStartDelayOnRetry(boolean startDelayOnRetry) {
+		this.startDelayOnRetry = startDelayOnRetry;
+	}
+	
+	public SessionPool getSessionPool() {
+		return sessionPool;
+	}
+	
+	public void setSessionPool(SessionPool sessionPool) {
+		this.sessionPool = sessionPool;
+	}
+	
+	/**
+	 * Get the duration of the run
+	 * @return Returns the duration in milliseconds, 0 if it has not started
+	 */
+	public long getDuration() {
+		return startTime > 0 ? endTime - startTime : 0;
+	}
+	
+	/**
+	 * Tell whether the runner has got a session, or given up getting one
+	 * @return Returns false while the runner is waiting for its session, true otherwise
+	 */
+	public boolean hasSession() {
+		return sessionResolved;
+	}
+	
+	public boolean isAutoSynchronize() {
+		return autoSynchronize;
+	}
+	
+	public void setAutoSynchronize(boolean autoSynchronize) {
+		this.autoSynchronize = autoSynchronize;
+	}
+	
+	/**
+	 * Get the time spent waiting for the page to be ready
+	 * @return Returns the time in milliseconds
+	 */
+	public long getSynchronizationTime() {
+		return synchronizationTime;
+	}
+	
+	public long getTestTimeout() {
+		return testTimeout;
+	}
+	
+	public void setTestTimeout(long testTimeout) {
+		this.testTimeout = testTimeout;
+	}
+	
+	/**
+	 * Get the time after which the run is over budget
+	 * @return Returns the deadline in milliseconds since the epoch, or 0 if
+	 *         there is none or if the run hasn't started yet
+	 */
+	public long getDeadline() {
+		return getTestTimeout() > 0 && startTime > 0 ? startTime + getTestTimeout() : 0;
+	}
+	
+	public long getLastProgress() {
+		return lastProgress;
+	}
+	
+	public CompiledCommand getCurrentCommand() {
+		return currentCommand;
+	}
+	
+	/**
+	 * Tell whether the runner has been started and hasn't terminated yet
+	 */
+	public boolean isRunning() {
+		synchronized(cancelLock) {
+			return thread != null && !finished;
+		}
+	}
+	
+	/**
+	 * Get the stack trace of the thread running the test case
+	 * @return Returns the stack trace, or null if the runner isn't running
+	 */
+	public StackTraceElement[] getThreadStackTrace() {
+		synchronized(cancelLock) {
+			return thread == null || finished ? null : thread.getStackTrace();
+		}
+	}
+	
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	
+	public boolean isAborted() {
+		return aborted;
+	}
+	
+	public long getAbortTime() {
+		return abortTime;
+	}
+	
+	/**
+	 * Cancel the runner, typically because the run has been stopped. The test
+	 * case is reported as errored (see {@link #abort(MojoExecutionException, boolean)}).
+	 * @param reason The reason of the cancellation
+	 */
+	public void cancel(String reason) {
+		abort(new MojoExecutionException("Cancelled (" + reason + ")"), true);
+	}
+	
+	/**
+	 * Terminate a runner that will never be started, typically a queued
+	 * runner when the run is cancelled: it is reported as cancelled and
+	 * counted down without running anything. Does nothing if the runner has
+	 * already been started.
+	 * @param reason The reason of the cancellation
+	 */
+	public void dismiss(String reason) {
+		synchronized(cancelLock) {
+			if(thread != null || finished) {
+				return;
+			}
+		}
+		cancel(reason);
+		synchronized(cancelLock) {
+			if(thread != null || finished) {
+				return;
+			}
+			finished = true;
+		}
+		getLog().debug(this + " Dismissed without being run");
+		countDown();
+	}
+	
+	/**
+	 * Abort the runner because it has exceeded its time budget
+	 * @param message The error message
+	 */
+	public void timeOut(String message) {
+		CompiledCommand command = getCurrentCommand();
+		abort(new MojoExecutionException((command == null ? "" : command + ": ") + message), false);
+	}
+	
+	/**
+	 * Abort the runner: the test case is marked as errored, its thread is
+	 * interrupted (which ends any wait or pause in progress) and its session
+	 * is closed (which makes any pending remote call fail). If the runner
+	 * hasn't been started yet, run() will terminate it without executing
+	 * anything. Does nothing if the runner has already terminated.
+	 * @param error     The error to report
+	 * @param cancelled Whether the runner is aborted because the whole run is cancelled
+	 */
+	protected void abort(MojoExecutionException error, boolean cancelled) {
+		SeleneseWebDriver driver;
+		synchronized(cancelLock) {
+			if(aborted || finished) {
+				return;
+			}
+			getTestCase().setError(error);
+			this.cancelled = cancelled;
+			abortTime = System.currentTimeMillis();
+			aborted = true;
+			if(thread != null) {
+				thread.interrupt();
+			}
+			driver = sessionReleased ? null : this.driver;
+		}
+		getLog().debug(this + " Aborted (" + error.getMessage() + ")");
+		if(driver != null && !quit(driver)) {
+			getLog().warn(this + ": failed to close WebDriver session after " + CLOSE_RETRIES + " attempts");
+		}
+	}
+	
+	/**
+	 * Close a session, unless it has already been closed
+	 * @param driver The session
+	 * @return Returns true if the session is closed, false otherwise
+	 */
+	protected boolean quit(SeleneseWebDriver driver) {
+		if(!sessionClosed.compareAndSet(false, true)) {
+			return true;
+		}
+		for(int retries = 0 ; retries < CLOSE_RETRIES ; retries++) {
+			try {
+				driver.quit();
+				return true;
+			}
+			catch(RuntimeException e) {} // do nothing as we warn later
+		}
+		return false;
+	}
+	
 	public long getWaitTimeout() {
 		return waitTimeout;
 	}
@@ -222,19 +619,175 @@ public class TestCaseRunner extends Thread {
 		this.waitTimeout = waitTimeout;
 	}
 	
-	protected void recordJavascriptErrors(SeleneseWebDriver driver) {
-		driver.executeScript("window.onerror = function(errorMsg, url, lineNumber) { document.body.attributes['data-selenium-error'] = errorMsg + ' in ' + url + ' at line ' + lineNumber }");
+	public boolean isElementCacheEnabled() {
+		return elementCacheEnabled;
+	}
+	
+	public void setElementCacheEnabled(boolean elementCacheEnabled) {
+		this.elementCacheEnabled = elementCacheEnabled;
+	}
+	
+	public WaitMode getWaitMode() {
+		return waitMode;
+	}
+	
+	public void setWaitMode(WaitMode waitMode) {
+		this.waitMode = waitMode;
+	}
+	
+	public long getWaitPollInterval() {
+		return waitPollInterval;
+	}
+	
+	public void setWaitPollInterval(long waitPollInterval) {
+		this.waitPollInterval = waitPollInterval;
+	}
+	
+	public double getWaitPollBackoff() {
+		return waitPollBackoff;
+	}
+	
+	public void setWaitPollBackoff(double waitPollBackoff) {
+		this.waitPollBackoff = waitPollBackoff;
+	}
+	
+	public boolean isScriptedElementResolution() {
+		return scriptedElementResolution;
+	}
+	
+	public void setScriptedElementResolution(boolean scriptedElementResolution) {
+		this.scriptedElementResolution = scriptedElementResolution;
+	}
+	
+	public boolean isScriptedSelect() {
+		return scriptedSelect;
+	}
+	
+	public void setScriptedSelect(boolean scriptedSelect) {
+		this.scriptedSelect = scriptedSelect;
+	}
+	
+	public int getElementCacheHits() {
+		return elementCacheHits;
+	}
+	
+	public int getElementCacheMisses() {
+		return elementCacheMisses;
+	}
+	
+	public PauseMode getPauseMode() {
+		return pauseMode;
+	}
+	
+	public void setPauseMode(PauseMode pauseMode) {
+		this.pauseMode = pauseMode;
+	}
+	
+	/**
+	 * Get the time spent in pause commands
+	 * @return Returns the time in milliseconds
+	 */
+	public long getPauseTime() {
+		return pauseTime;
+	}
+	
+	public boolean isCommandTimingsEnabled() {
+		return commandTimingsEnabled;
+	}
+	
+	public void setCommandTimingsEnabled(boolean commandTimingsEnabled) {
+		this.commandTimingsEnabled = commandTimingsEnabled;
+	}
+	
+	/**
+	 * Get the time of the commands of the run
+	 * @return Returns the timings, or null if not measured
+	 */
+	public CommandTimings getCommandTimings() {
+		return commandTimings;
+	}
+	
+	public void setCommandTimings(CommandTimings commandTimings) {
+		this.commandTimings = commandTimings;
+	}
+	
+	public boolean isWireCallStatisticsEnabled() {
+		return wireCallStatisticsEnabled;
+	}
+	
+	public void setWireCallStatisticsEnabled(boolean wireCallStatisticsEnabled) {
+		this.wireCallStatisticsEnabled = wireCallStatisticsEnabled;
+	}
+	
+	/**
+	 * Get the WebDriver calls of the run
+	 * @return Returns the statistics, or null if not counted
+	 */
+	public WireCallStatistics getWireCallStatistics() {
+		return wireCallStatistics;
+	}
+	
+	public void setWireCallStatistics(WireCallStatistics wireCallStatistics) {
+		this.wireCallStatistics = wireCallStatistics;
+	}
+	
+	public TraceWriter getTraceWriter() {
+		return traceWriter;
+	}
+	
+	/**
+	 * Set the timeline to write the spans of the run to
+	 * @param traceWriter The timeline, null not to trace the run
+	 */
+	public void setTraceWriter(TraceWriter traceWriter) {
+		this.traceWriter = traceWriter;
+	}
+	
+	/**
+	 * Get the name of the grid node running the test case
+	 * @return Returns the node name, or null if no session has been acquired
+	 */
+	public String getNodeName() {
+		return nodeName;
 	}
 	
-	protected void checkJavascriptErrors(SeleneseWebDriver driver) {
-		Object error = driver.executeScript("return (document.body.attributes['data-selenium-error'])");
-		if(error != null) {
-			getLog().warn(this + ": (JavaScript error) " + error.toString());
-			driver.executeScript("document.body.removeAttribute('data-selenium-error')");
+	/**
+	 * Get the current time of the timeline
+	 * @return Returns the time in microseconds, or 0 if not traced
+	 */
+	protected long getTraceTime() {
+		return traceSpans == null ? 0 : getTraceWriter().now();
+	}
+	
+	/**
+	 * Add a span ending now to the timeline, if traced
+	 * @param name     The span name
+	 * @param category The span category
+	 * @param start    The start time (see {@link #getTraceTime()})
+	 */
+	protected void trace(String name, String category, long start) {
+		if(traceSpans != null) {
+			traceSpans.add(new TraceWriter.Span(name, category, start, getTraceWriter().now()));
 		}
 	}
 	
+	public int getJavascriptErrorsCheckInterval() {
+		return javascriptErrorsCheckInterval;
+	}
+	
+	public void setJavascriptErrorsCheckInterval(int javascriptErrorsCheckInterval) {
+		this.javascriptErrorsCheckInterval = javascriptErrorsCheckInterval;
+	}
+	
+	/**
+	 * Get the JavaScript errors raised by the pages during the run
+	 */
+	public List<String> getJavascriptErrors() {
+		return javascriptErrors;
+	}
+	
 	protected File takeScreenShot(SeleneseWebDriver driver) {
+		long start = getTraceTime();
 		try {
 			WebDriver augmentedDriver = new Augmenter().augment(driver);
 			File scrFile = ((TakesScreenshot)augmentedDriver).getScreenshotAs(OutputType.FILE);
@@ -246,44 +799,123 @@ public class TestCaseRunner extends Thread {
 			getLog().error(this + " Error while taking screenshot (" + e.getMessage() + ")");
 			return null;
 		}
+		finally {
+			trace("screenshot", "screenshot", start);
+		}
 	}
 	
-	@Override
 	public void run() {
-		getLog().debug(this + " Starting running test case (" + getTestCase().getCommands().length + " commands)");
+		startTime = System.currentTimeMillis();
+		lastProgress = startTime;
+		traceSpans = getTraceWriter() == null ? null : new ArrayList<TraceWriter.Span>();
+		long traceStart = getTraceTime();
+		getLog().debug(this + " Starting running test case");
 		
 		boolean closed = false;
 		
-		if(!isInterrupted()) {
+		synchronized(cancelLock) {
+			thread = Thread.currentThread();
+		}
+		
+		if(!Thread.currentThread().isInterrupted() && !isAborted()) {
 			
 			int executedCommands = 0;
 			
 			SeleneseWebDriver driver = null;
 			try {
 				
+				// Commands, if loaded lazily
+				getTestCase().load();
+				getLog().debug(this + " Running " + getTestCase().getCommands().length + " commands");
+				
 				// Driver & interpreter initialization
-				driver = initWebDriver();
+				long sessionStart = getTraceTime();
+				try {
+					driver = initWebDriver();
+					nodeName = driver.getNodeName();
+				}
+				finally {
+					sessionResolved = true;
+					trace("session", "session", sessionStart);
+				}
+				synchronized(cancelLock) {
+					this.driver = driver;
+				}
+				driver.setDeadline(getDeadline());
+				driver.setAutoSynchronize(isAutoSynchronize());
+				driver.setJavascriptErrorsCheckInterval(getJavascriptErrorsCheckInterval());
+				driver.setPauseMode(getPauseMode());
+				driver.setWaitMode(getWaitMode());
+				driver.setWaitPollInterval(getWaitPollInterval());
+				driver.setWaitPollBackoff(getWaitPollBackoff());
+				driver.setElementCacheEnabled(isElementCacheEnabled());
+				driver.setScriptedResolution(isScriptedElementResolution());
+				driver.setScriptedSelect(isScriptedSelect());
+				CommandTimings timings = isCommandTimingsEnabled() ? new CommandTimings() : null;
+				setCommandTimings(timings);
+				final WireCallStatistics wireCalls = isWireCallStatisticsEnabled() ? new WireCallStatistics() : null;
+				setWireCallStatistics(wireCalls);
+				if(wireCalls != null) {
+					driver.setWireCallListener(new WireCallListener() {
+						public void fireWireCall(SeleneseWebDriver driver, CompiledCommand command, String wireCommand, long duration) {
+							wireCalls.record(command, wireCommand, duration);
+						}
+					});
+				}
+				lastProgress = System.currentTimeMillis();
 				
 				// Run commands
-				for(SeleneseCommand command : getTestCase().getCommands()) {
+				for(CompiledCommand command : getTestCase().getPlan()) {
 					
-					if(isInterrupted()) {
+					if(Thread.currentThread().isInterrupted() || isAborted()) {
 						break;
 					}
 					
+					currentCommand = command;
+					lastProgress = System.currentTimeMillis();
+					long commandStart = timings == null ? 0 : System.nanoTime();
+					
 					if(getCommandInterval() != 0) {
+						long sleepStart = getTraceTime();
 						Thread.sleep(getCommandInterval());
+						trace("commandInterval", "sleep", sleepStart);
 					}
+					long slept = timings == null ? 0 : System.nanoTime() - commandStart;
 					
 					getLog().debug(this + " Running " + command);
-					recordJavascriptErrors(driver);					
-					driver.execute(command);
+					long executeStart = getTraceTime();
+					try {
+						driver.execute(command);
+					}
+					finally {
+						if(traceSpans != null) {
+							trace(command.toString(), command.getAction().isWait() ? "wait" : command.getAction() == Action.pause ? "sleep" : "command", executeStart);
+							if(driver.getLastSynchronizationTime() > 0) {
+								long end = getTraceTime();
+								traceSpans.add(new TraceWriter.Span("synchronize", "wait", end - driver.getLastSynchronizationTime() * 1000, end));
+							}
+						}
+					}
 					executedCommands++;
-					checkJavascriptErrors(driver);
+					if(timings != null) {
+						timings.record(command, System.nanoTime() - commandStart, driver.getLastRoundTripTime(), driver.getLastWaitTime(), slept + driver.getLastPauseTime() * 1000000);
+					}
+					if(wireCalls != null) {
+						wireCalls.recordExecution(command);
+					}
+					if(driver.getLastSynchronizationTime() > 0) {
+						synchronizationTime += driver.getLastSynchronizationTime();
+						getLog().debug(this + " Synchronized " + command + " in " + driver.getLastSynchronizationTime() + " ms");
+					}
+					if(driver.getLastPauseTime() > 0) {
+						pauseTime += driver.getLastPauseTime();
+						getLog().debug(this + " Paused " + driver.getLastPauseTime() + " ms (" + getPauseMode() + ")");
+					}
 				}
 			}
 			
 			// Wrongly written tests
+			catch(TestCaseLoadingException e)        { raiseFailure(e); }
 			catch(InvalidSeleneseCommandException e) { raiseFailure(e, executedCommands); }
 			
 			// Failed test
@@ -323,18 +955,38 @@ public class TestCaseRunner extends Thread {
 				// Close the driver unless its initialization failed
 				if(driver != null) {
 					
-					if(!testCase.hasFailed()) {
-						checkJavascriptErrors(driver);
+					if(!testCase.hasFailed() && !isAborted() && getJavascriptErrorsCheckInterval() > 0) {
+						try {
+							driver.checkJavascriptErrors();
+						}
+						catch(RuntimeException e) {
+							getLog().debug(this + " Can't check JavaScript errors (" + e.getMessage() + ")");
+						}
 					}
+					javascriptErrors.addAll(driver.getJavascriptErrors());
+					elementCacheHits = driver.getElementCacheHits();
+					elementCacheMisses = driver.getElementCacheMisses();
+					driver.setWireCallListener(null);
 					
-					getLog().debug(this + " Closing driver session");
-					
-					for(int retries = 0 ; !closed && retries < CLOSE_RETRIES ; retries++) {
-						try {
-							driver.quit();
-							closed = true;
+					// Give the session back to the pool, unless an infrastructure error occurred
+					long closeStart = getTraceTime();
+					boolean release = false;
+					synchronized(cancelLock) {
+						if(getSessionPool() != null && !testCase.hasFailed() && !aborted) {
+							sessionReleased = true;
+							release = true;
 						}
-						catch(RuntimeException e) {} // do nothing as we throw an Exception later
+					}
+					if(release) {
+						getLog().debug(this + " Releasing driver session");
+						getSessionPool().release(getCapability(), driver);
+						closed = true;
+						trace("release session", "session", closeStart);
+					}
+					else {
+						getLog().debug(this + " Closing driver session");
+						closed = quit(driver);
+						trace("quit session", "session", closeStart);
 					}
 				}
 				else {
@@ -342,49 +994,140 @@ public class TestCaseRunner extends Thread {
 				}
 			}
 		}
+		else {
+			
+			// Aborted before starting: no session has been opened
+			closed = true;
+		}
 		
+		endTime = System.currentTimeMillis();
+		synchronized(cancelLock) {
+			finished = true;
+			thread = null;
+			driver = null;
+			currentCommand = null;
+			Thread.interrupted(); // clear an abort request before giving the thread back
+		}
 		getLog().debug(this + " Finished running test case (" + getTestCase().getStatus() + ")");
+		if(isAutoSynchronize()) {
+			getLog().info(this + " Spent " + getSynchronizationTime() + " ms waiting for the page to be ready");
+		}
+		if(isElementCacheEnabled()) {
+			getLog().info(this + " Element cache: " + getElementCacheHits() + " hit(s), " + getElementCacheMisses() + " miss(es)");
+		}
+		if(getPauseTime() > 0) {
+			getLog().debug(this + " Spent " + getPauseTime() + " ms in pause commands");
+		}
+		
+		// Write the timeline of the run
+		if(traceSpans != null) {
+			trace(getTestCase().getName() + " @ " + getCapability(), "testCase", traceStart);
+			try {
+				getTraceWriter().write(getNodeName() == null ? "no session" : getNodeName(), Thread.currentThread().getName(), traceSpans);
+			}
+			catch(IOException e) {
+				getLog().warn(this + " Can't write the timeline (" + e.getMessage() + ")");
+			}
+			traceSpans = null;
+		}
 		
 		// Free the latch
+		countDown();
+		
+		// Raise a failure if the driver hasn't been closed properly
+		if(!closed) {
+			getLog().warn(this + ": failed to close WebDriver session after " + CLOSE_RETRIES + " attempts");
+		}
+	}
+	
+	/**
+	 * Count down the latch for this runner, unless it has already been done
+	 */
+	protected void countDown() {
+		if(!countedDown.compareAndSet(false, true)) {
+			return;
+		}
 		try {
 			latch.countDown(this);
 		}
 		catch(RuntimeException e) {
 			raiseFailure(e);
 		}
-		
-		// Raise a failure if the driver hasn't been closed properly
-		if(!closed) {
-			getLog().warn(this + ": failed to close WebDriver session after " + CLOSE_RETRIES + " attempts");
+	}
+	
+	/**
+	 * Give up waiting for an aborted runner whose thread doesn't terminate,
+	 * typically because it is blocked on a remote call that never returns.
+	 * The runner is counted down as terminated, and its thread is left
+	 * behind.
+	 */
+	public void reclaim() {
+		synchronized(cancelLock) {
+			if(finished) {
+				return;
+			}
+			finished = true;
 		}
+		endTime = System.currentTimeMillis();
+		getLog().warn(this + " Giving up waiting for the runner thread to terminate");
+		countDown();
 	}
 	
 	protected URL getServerURL() throws MalformedURLException {
 		return new URL("http://" + getServer().getHostName() + ":" + getServer().getPort() + REMOTE_SERVER_PATH);
 	}
 	
-	synchronized protected SeleneseWebDriver initWebDriver() throws MalformedURLException, CapabilitiesNotFoundException, InterruptedException, SeleniumNodeNameException {
+	protected com.github.amercier.selenium.selenese.log.Log getSeleneseLog() {
 		final Log log = getLog();
+		return new com.github.amercier.selenium.selenese.log.Log() {
+			public void warn (String message) { log.warn (TestCaseRunner.this + " " + message); }
+			public void info (String message) { log.info (TestCaseRunner.this + " " + message); }
+			public void error(String message) { log.error(TestCaseRunner.this + " " + message); }
+			public void debug(String message) { log.debug(TestCaseRunner.this + " " + message); }
+			public boolean isDebugEnabled()   { return log.isDebugEnabled(); }
+		};
+	}
+	
+	synchronized protected SeleneseWebDriver initWebDriver() throws MalformedURLException, CapabilitiesNotFoundException, InterruptedException, SeleniumNodeNameException {
+		
+		// Reuse an idle session, if any
+		if(getSessionPool() != null) {
+			SeleneseWebDriver driver = getSessionPool().acquire(getCapability());
+			if(driver != null) {
+				driver.setLog(getSeleneseLog());
+				driver.setWaitTimeout(getWaitTimeout());
+				getLog().info(this + " Starting on reused session (" + driver.getSessionId() + (driver.getNodeName() == null ? "" : " on " + driver.getNodeName()) + ")");
+				return driver;
+			}
+		}
+		
 		int remainingAttempts = 10;
 		SeleneseWebDriver driver = null;
 		while(remainingAttempts > 0) {
 			try {
 				
 				// Run the startDelay sleep
-				Thread.sleep(getStartDelay());
+				if(!isStartDelayOnRetry() || remainingAttempts < 10) {
+					long sleepStart = getTraceTime();
+					Thread.sleep(getStartDelay());
+					trace("startDelay", "sleep", sleepStart);
+				}
 
-				driver = new SeleneseWebDriver(getBaseUrl(), getServerURL(), getCapability().toCapabilities(), new com.github.amercier.selenium.selenese.log.Log() {
-					public void warn (String message) { log.warn (TestCaseRunner.this + " " + message); }
-					public void info (String message) { log.info (TestCaseRunner.this + " " + message); }
-					public void error(String message) { log.error(TestCaseRunner.this + " " + message); }
-					public void debug(String message) { log.debug(TestCaseRunner.this + " " + message); }
-				}, getWaitTimeout());
+				long sessionStart = getTraceTime();
+				driver = new SeleneseWebDriver(getBaseUrl(), getServerURL(), getCapability().toCapabilities(), getSeleneseLog(), getWaitTimeout());
+				trace("new session", "session", sessionStart);
+				if(getSessionPool() != null) {
+					getSessionPool().register(driver);
+				}
 
-				getLog().info(this + " Starting on " + getNodeName(driver) + " (" + driver.getSessionId() + ")");
+				driver.setNodeName(getNodeName(driver));
+				getLog().info(this + " Starting on " + driver.getNodeName() + " (" + driver.getSessionId() + ")");
 
 				// Run a random sleep to de-sync the runners
 				if(getCommandInterval() > 0) {
+					long sleepStart = getTraceTime();
 					Thread.sleep((long) (Math.random() * getCommandInterval()));
+					trace("desynchronization", "sleep", sleepStart);
 				}
 				
 				return driver;
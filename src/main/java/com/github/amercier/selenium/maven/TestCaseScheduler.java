@@ -0,0 +1,558 @@
+package com.github.amercier.selenium.maven;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.maven.plugin.logging.Log;
+
+import com.github.amercier.selenium.maven.configuration.DesiredCapabilities;
+
+/**
+ * Runs test case runners on a bounded number of slots.
+ *
+ * Runners are queued using {@link #submit(TestCaseRunner)}, then
+ * {@link #run()} dispatches each of them as soon as both a global slot and a
+ * slot for its configuration (see {@link DesiredCapabilities#maxInstances})
+ * are free. A slot released by a terminated runner is immediately given to
+ * the next eligible runner of the queue.
+ *
+ * If a {@link GridCapacityMonitor} is set, a runner is only dispatched when
+ * the grid has a free slot matching its configuration, not counting the
+ * slots about to be taken by runners still waiting for their session. Idle
+ * sessions of the {@link SessionPool}, if any, are counted as free slots.
+ * When the grid only reports its free slots as a whole, a runner is also
+ * held back while its configuration's slots (see
+ * {@link GridCapacityMonitor#getCapacity(DesiredCapabilities)}) are all taken
+ * by this run.
+ *
+ * {@link #cancel(String)} stops the dispatch: queued runners are terminated
+ * without being run, and running ones are cancelled in parallel. A
+ * {@link TestCaseWatchdog}, if set, aborts the runners that are over budget
+ * or stalled.
+ */
+public class TestCaseScheduler {
+
+	/**
+	 * Slot accounting and statistics, either global or for a single configuration
+	 */
+	protected static class Slots {
+
+		/**
+		 * Maximum number of busy slots (0 means unlimited)
+		 */
+		protected int limit;
+
+		protected int running = 0;
+		protected int peak = 0;
+		protected int started = 0;
+		protected long busyTime = 0;
+
+		public Slots(int limit) {
+			this.limit = limit;
+		}
+
+		public boolean isFull() {
+			return limit > 0 && running >= limit;
+		}
+
+		public void acquire() {
+			running++;
+			started++;
+			peak = Math.max(peak, running);
+		}
+
+		public void release(long duration) {
+			running--;
+			busyTime += duration;
+		}
+
+		/**
+		 * Get the ratio between the time the slots have been busy and the
+		 * time they were available
+		 * @param elapsed The time elapsed since the first start
+		 * @return Returns the slot utilization, as a percentage
+		 */
+		public long getUtilization(long elapsed) {
+			long capacity = (limit > 0 ? limit : peak) * Math.max(elapsed, 1);
+			return capacity == 0 ? 0 : Math.round(100.0 * busyTime / capacity);
+		}
+
+		@Override
+		public String toString() {
+			return started + " test run" + (started > 1 ? "s" : "") + ", peak " + peak + (limit > 0 ? "/" + limit : "") + " simultaneous";
+		}
+	}
+
+	/**
+	 * Delay between two consecutive starts while the slots are being filled
+	 * for the first time
+	 */
+	protected long startInterval;
+
+	/**
+	 * Log
+	 */
+	protected Log log;
+
+	/**
+	 * Runners waiting for a slot, in dispatch order
+	 */
+	protected List<TestCaseRunner> queue;
+
+	/**
+	 * Runners that have been dispatched and have not terminated yet
+	 */
+	protected Set<TestCaseRunner> running;
+
+	/**
+	 * Grid capacity monitor, if any
+	 */
+	protected GridCapacityMonitor capacityMonitor;
+
+	/**
+	 * Pool of reusable sessions, if any
+	 */
+	protected SessionPool sessionPool;
+
+	/**
+	 * Watchdog, if any
+	 */
+	protected TestCaseWatchdog watchdog;
+
+	/**
+	 * Global slots
+	 */
+	protected Slots slots;
+
+	/**
+	 * Slots of each configuration
+	 */
+	protected Map<DesiredCapabilities,Slots> capabilitySlots;
+
+	/**
+	 * Number of runners that have terminated
+	 */
+	protected int finishedCount;
+
+	/**
+	 * Maximum number of runners that have been waiting simultaneously
+	 */
+	protected int maxQueueDepth;
+
+	protected long startTime;
+
+	protected long endTime;
+
+	protected Set<TestCaseSchedulerListener> listeners;
+
+	/**
+	 * Whether the dispatch has been cancelled
+	 */
+	protected boolean cancelled;
+
+	/**
+	 * Create a scheduler
+	 * @param maxSimultaneousTests Maximum number of simultaneous runners (0 means unlimited)
+	 * @param startInterval        Delay between two consecutive starts while the slots are being filled
+	 * @param log                  The log
+	 */
+	public TestCaseScheduler(int maxSimultaneousTests, long startInterval, Log log) {
+		this.slots = new Slots(maxSimultaneousTests);
+		this.capabilitySlots = new LinkedHashMap<DesiredCapabilities,Slots>();
+		this.queue = new LinkedList<TestCaseRunner>();
+		this.running = new LinkedHashSet<TestCaseRunner>();
+		this.capacityMonitor = null;
+		this.sessionPool = null;
+		this.watchdog = null;
+		this.listeners = new HashSet<TestCaseSchedulerListener>();
+		this.finishedCount = 0;
+		this.maxQueueDepth = 0;
+		this.cancelled = false;
+		setStartInterval(startInterval);
+		setLog(log);
+	}
+
+	public long getStartInterval() {
+		return startInterval;
+	}
+
+	public void setStartInterval(long startInterval) {
+		this.startInterval = startInterval;
+	}
+
+	public GridCapacityMonitor getCapacityMonitor() {
+		return capacityMonitor;
+	}
+
+	/**
+	 * Only dispatch runners when the grid has a free slot for them
+	 * @param capacityMonitor The grid capacity monitor
+	 */
+	public void setCapacityMonitor(GridCapacityMonitor capacityMonitor) {
+		this.capacityMonitor = capacityMonitor;
+		capacityMonitor.addListener(new GridCapacityListener() {
+			public void fireCapacityChanged(GridCapacityMonitor monitor) {
+				synchronized(TestCaseScheduler.this) {
+					TestCaseScheduler.this.notifyAll();
+				}
+			}
+		});
+	}
+
+	public SessionPool getSessionPool() {
+		return sessionPool;
+	}
+
+	public void setSessionPool(SessionPool sessionPool) {
+		this.sessionPool = sessionPool;
+	}
+
+	public TestCaseWatchdog getWatchdog() {
+		return watchdog;
+	}
+
+	public void setWatchdog(TestCaseWatchdog watchdog) {
+		this.watchdog = watchdog;
+	}
+
+	protected Log getLog() {
+		return log;
+	}
+
+	protected void setLog(Log log) {
+		this.log = log;
+	}
+
+	public void addListener(TestCaseSchedulerListener listener) {
+		this.listeners.add(listener);
+	}
+
+	public void removeListener(TestCaseSchedulerListener listener) {
+		this.listeners.remove(listener);
+	}
+
+	protected void fireStarted(TestCaseRunner runner) {
+		for(TestCaseSchedulerListener listener : listeners) {
+			listener.fireStarted(this, runner);
+		}
+	}
+
+	protected Slots getSlots(DesiredCapabilities capability) {
+		Slots result = capabilitySlots.get(capability);
+		if(result == null) {
+			result = new Slots(capability.maxInstances);
+			capabilitySlots.put(capability, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Add a runner at the end of the queue
+	 * @param runner The runner
+	 */
+	synchronized public void submit(TestCaseRunner runner) {
+		queue.add(runner);
+		getSlots(runner.getCapability());
+		maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+		notifyAll();
+	}
+
+	/**
+	 * Sort the queue so that the longest runners are dispatched first, which
+	 * avoids waiting for a long runner started at the very end
+	 * @param durations The estimated duration of each queued runner
+	 */
+	synchronized public void sortQueue(final Map<TestCaseRunner,Long> durations) {
+		Collections.sort(queue, new Comparator<TestCaseRunner>() {
+			public int compare(TestCaseRunner runner1, TestCaseRunner runner2) {
+				return durations.get(runner2).compareTo(durations.get(runner1));
+			}
+		});
+	}
+
+	/**
+	 * Get the next runners to be dispatched
+	 * @param count The maximum number of runners
+	 * @return Returns a copy of the first queued runners
+	 */
+	synchronized public List<TestCaseRunner> getQueued(int count) {
+		return new ArrayList<TestCaseRunner>(queue.subList(0, Math.min(count, queue.size())));
+	}
+
+	/**
+	 * Get the runners that have been dispatched and have not terminated yet
+	 * @return Returns a copy of the running runners
+	 */
+	synchronized public List<TestCaseRunner> getRunning() {
+		return new ArrayList<TestCaseRunner>(running);
+	}
+
+	synchronized public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Stop dispatching runners: the queued runners are terminated without
+	 * being run, and the running ones are cancelled in parallel so that their
+	 * sessions are closed as soon as possible (see
+	 * {@link TestCaseRunner#cancel(String)})
+	 * @param reason The reason of the cancellation
+	 */
+	public void cancel(final String reason) {
+		List<TestCaseRunner> queued, dispatched;
+		synchronized(this) {
+			if(cancelled) {
+				return;
+			}
+			cancelled = true;
+			queued = new ArrayList<TestCaseRunner>(queue);
+			dispatched = new ArrayList<TestCaseRunner>(running);
+			queue.clear();
+			notifyAll();
+		}
+		getLog().warn("Cancelling " + dispatched.size() + " running and " + queued.size() + " queued test run" + (dispatched.size() + queued.size() > 1 ? "s" : "") + " (" + reason + ")");
+
+		int count = 0;
+		for(final TestCaseRunner runner : dispatched) {
+			new Thread(new Runnable() {
+				public void run() {
+					runner.cancel(reason);
+				}
+			}, "selenese-cancel-" + (++count)).start();
+		}
+
+		// Terminate the queued runners, so that they are reported and counted down
+		dismiss(queued, reason);
+	}
+
+	/**
+	 * Report and count down runners that will never be dispatched, without
+	 * running them nor notifying the listeners of a start. This is done on
+	 * a dedicated thread, as {@link #cancel(String)} may be called by a
+	 * latch listener.
+	 * @param runners The runners, removed from the queue
+	 * @param reason  The reason of the cancellation
+	 */
+	protected void dismiss(final List<TestCaseRunner> runners, final String reason) {
+		if(runners.isEmpty()) {
+			return;
+		}
+		new Thread(new Runnable() {
+			public void run() {
+				for(TestCaseRunner runner : runners) {
+					runner.dismiss(reason);
+				}
+			}
+		}, "selenese-cancel-queued").start();
+	}
+
+	/**
+	 * Dispatch all the queued runners, and wait for them to terminate
+	 * @throws InterruptedException
+	 */
+	public void run() throws InterruptedException {
+		ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			protected int count = 0;
+			synchronized public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "selenese-runner-" + (++count));
+				thread.setDaemon(true); // a reclaimed runner must not prevent the build from ending
+				return thread;
+			}
+		});
+
+		synchronized(this) {
+			startTime = System.currentTimeMillis();
+		}
+
+		Thread monitorThread = null;
+		if(getCapacityMonitor() != null) {
+			getCapacityMonitor().refresh();
+			monitorThread = new Thread(getCapacityMonitor(), "selenese-grid-monitor");
+			monitorThread.setDaemon(true);
+			monitorThread.start();
+		}
+
+		Thread watchdogThread = null;
+		if(getWatchdog() != null) {
+			watchdogThread = new Thread(getWatchdog(), "selenese-watchdog");
+			watchdogThread.setDaemon(true);
+			watchdogThread.start();
+		}
+
+		try {
+			TestCaseRunner runner;
+			while((runner = next()) != null) {
+				fireStarted(runner);
+				executor.execute(wrap(runner));
+
+				if(getStartInterval() > 0 && isRampingUp()) {
+					Thread.sleep(getStartInterval());
+				}
+			}
+			awaitTermination();
+		}
+		finally {
+			executor.shutdown();
+			if(monitorThread != null) {
+				monitorThread.interrupt();
+			}
+			if(watchdogThread != null) {
+				watchdogThread.interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Wait for a runner that has both a global and a configuration slot
+	 * available, and reserve these slots
+	 * @return Returns the runner, or null if the queue is empty
+	 * @throws InterruptedException
+	 */
+	synchronized protected TestCaseRunner next() throws InterruptedException {
+		while(!queue.isEmpty()) {
+			for(Iterator<TestCaseRunner> i = queue.iterator() ; !slots.isFull() && i.hasNext() ; ) {
+				TestCaseRunner runner = i.next();
+				Slots runnerSlots = getSlots(runner.getCapability());
+				if(!runnerSlots.isFull() && hasGridSlot(runner.getCapability())) {
+					i.remove();
+					running.add(runner);
+					slots.acquire();
+					runnerSlots.acquire();
+					getLog().debug("Starting " + runner + " (" + queue.size() + " queued, " + slots.running + (slots.limit > 0 ? "/" + slots.limit : "") + " slots busy)");
+					return runner;
+				}
+			}
+			wait(getCapacityMonitor() == null ? 0 : getCapacityMonitor().getPollInterval());
+		}
+		return null;
+	}
+
+	/**
+	 * Tell whether the grid has a free slot for a configuration
+	 * @param capability The configuration
+	 * @return Returns true if a slot is free, if an idle session of the pool
+	 *         is left for the runner or if the capacity is unknown, false
+	 *         otherwise
+	 */
+	synchronized protected boolean hasGridSlot(DesiredCapabilities capability) {
+		if(getCapacityMonitor() == null) {
+			return true;
+		}
+		int free = getCapacityMonitor().getFreeSlots(capability);
+		if(free < 0) {
+			return true;
+		}
+
+		// An idle session left over by the running runners waiting for theirs is a slot already taken for this configuration
+		int idle = getSessionPool() == null ? 0 : getSessionPool().getIdleCount(capability);
+		int waiting = 0;
+		for(TestCaseRunner runner : running) {
+			if(!runner.hasSession() && runner.getCapability() == capability) {
+				waiting++;
+			}
+		}
+		if(idle > waiting) {
+			return true;
+		}
+		free += idle;
+
+		// Do not count twice the slots about to be taken by runners waiting for their session
+		boolean perConfiguration = getCapacityMonitor().isPerConfiguration();
+		int taken = 0;
+		for(TestCaseRunner runner : running) {
+			if(!runner.hasSession() && (!perConfiguration || runner.getCapability() == capability)) {
+				free--;
+			}
+			if(runner.getCapability() == capability) {
+				taken++;
+			}
+		}
+
+		// Do not take more slots than the grid has for this configuration, when the free slots are only known for the whole grid
+		int capacity = getCapacityMonitor().getCapacity(capability);
+		if(capacity >= 0 && taken >= capacity) {
+			return false;
+		}
+		return free > 0;
+	}
+
+	/**
+	 * Wrap a runner so that its slots are released as soon as it terminates
+	 * @param runner The runner
+	 * @return Returns the task to be executed
+	 */
+	protected Runnable wrap(final TestCaseRunner runner) {
+		return new Runnable() {
+			public void run() {
+				long start = System.currentTimeMillis();
+				try {
+					runner.run();
+				}
+				finally {
+					release(runner, System.currentTimeMillis() - start);
+				}
+			}
+		};
+	}
+
+	synchronized protected void release(TestCaseRunner runner, long duration) {
+		if(!running.remove(runner)) {
+			return; // already reclaimed
+		}
+		slots.release(duration);
+		getSlots(runner.getCapability()).release(duration);
+		finishedCount++;
+		getLog().debug("Released slot of " + runner + " (" + queue.size() + " queued, " + slots.running + (slots.limit > 0 ? "/" + slots.limit : "") + " slots busy)");
+		notifyAll();
+	}
+
+	/**
+	 * Give up waiting for an aborted runner that doesn't terminate, and free
+	 * its slots (see {@link TestCaseRunner#reclaim()})
+	 * @param runner The runner
+	 */
+	public void reclaim(TestCaseRunner runner) {
+		runner.reclaim();
+		release(runner, runner.getDuration());
+	}
+
+	/**
+	 * Tell whether the slots are being filled for the first time, i.e. no
+	 * runner has terminated yet and there are still runners to start
+	 * @return Returns true if the scheduler is ramping up, false otherwise
+	 */
+	synchronized protected boolean isRampingUp() {
+		return finishedCount == 0 && !queue.isEmpty();
+	}
+
+	synchronized protected void awaitTermination() throws InterruptedException {
+		while(slots.running > 0) {
+			wait();
+		}
+		endTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Log queue depth and slot utilization statistics
+	 */
+	synchronized public void logStatistics() {
+		long elapsed = (endTime == 0 ? System.currentTimeMillis() : endTime) - startTime;
+		getLog().info("Scheduler: " + slots + ", max queue depth " + maxQueueDepth + ", slot utilization " + slots.getUtilization(elapsed) + "%");
+		for(Entry<DesiredCapabilities,Slots> entry : capabilitySlots.entrySet()) {
+			getLog().info("Scheduler: " + entry.getKey() + ": " + entry.getValue() + ", slot utilization " + entry.getValue().getUtilization(elapsed) + "%");
+		}
+	}
+}
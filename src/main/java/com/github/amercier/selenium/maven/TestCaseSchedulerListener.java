@@ -0,0 +1,7 @@
+package com.github.amercier.selenium.maven;
+
+public interface TestCaseSchedulerListener {
+
+	void fireStarted(TestCaseScheduler scheduler, TestCaseRunner runner);
+
+}
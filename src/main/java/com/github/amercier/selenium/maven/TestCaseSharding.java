@@ -0,0 +1,153 @@
+package com.github.amercier.selenium.maven;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Deterministic partition of the test runs between several agents.
+ *
+ * Runs are weighted, then assigned one by one, heaviest first, to the shard
+ * with the lowest total weight. Ties are broken by name and by index so that
+ * every agent computes the same partition from the same weights. Without
+ * weights, all runs weigh the same, which assigns them round-robin in name
+ * order: weights must only be used if all agents share them (typically a
+ * duration history shared by all agents), otherwise test runs would be
+ * dropped or run twice. A hash of the partition input is logged, so that
+ * agents computing different partitions can be spotted.
+ */
+public class TestCaseSharding {
+
+	/**
+	 * Number of shards
+	 */
+	protected int shardCount;
+
+	/**
+	 * Log
+	 */
+	protected Log log;
+
+	/**
+	 * Create a sharding
+	 * @param shardCount Number of shards
+	 * @param log        The log
+	 */
+	public TestCaseSharding(int shardCount, Log log) {
+		this.shardCount = shardCount;
+		this.log = log;
+	}
+
+	public int getShardCount() {
+		return shardCount;
+	}
+
+	/**
+	 * Get the result file of a shard: "TEST-suite.xml" becomes "TEST-suite-shard2.xml"
+	 * @param file       The result file
+	 * @param shardIndex The shard index
+	 * @return Returns the shard result file
+	 */
+	public static File getShardFile(File file, int shardIndex) {
+		String name = file.getName();
+		int extension = name.lastIndexOf('.');
+		return new File(file.getParentFile(), extension < 0 ? name + "-shard" + shardIndex : name.substring(0, extension) + "-shard" + shardIndex + name.substring(extension));
+	}
+
+	/**
+	 * Select the runners of a shard
+	 * @param runners    All the runners, in the same order on every agent
+	 * @param weights    The weight of each runner, which must be the same on
+	 *                   every agent, or null to weigh them all the same
+	 * @param shardIndex The shard index
+	 * @return Returns the runners of the shard, in their original order
+	 */
+	public List<TestCaseRunner> select(final List<TestCaseRunner> runners, Map<TestCaseRunner,Long> weights, int shardIndex) {
+
+		final Map<TestCaseRunner,Integer> indexes = new HashMap<TestCaseRunner,Integer>();
+		for(TestCaseRunner runner : runners) {
+			indexes.put(runner, indexes.size());
+		}
+		if(weights == null) {
+			weights = new HashMap<TestCaseRunner,Long>();
+			for(TestCaseRunner runner : runners) {
+				weights.put(runner, 1L);
+			}
+		}
+		final Map<TestCaseRunner,Long> runnerWeights = weights;
+
+		// Heaviest first
+		List<TestCaseRunner> sorted = new ArrayList<TestCaseRunner>(runners);
+		Collections.sort(sorted, new Comparator<TestCaseRunner>() {
+			public int compare(TestCaseRunner runner1, TestCaseRunner runner2) {
+				int result = runnerWeights.get(runner2).compareTo(runnerWeights.get(runner1));
+				if(result == 0) {
+					result = runner1.toString().compareTo(runner2.toString());
+				}
+				if(result == 0) {
+					result = indexes.get(runner1) - indexes.get(runner2);
+				}
+				return result;
+			}
+		});
+
+		// Assign each runner to the lightest shard
+		long[] loads = new long[shardCount];
+		Map<TestCaseRunner,Integer> shards = new HashMap<TestCaseRunner,Integer>();
+		for(TestCaseRunner runner : sorted) {
+			int lightest = 0;
+			for(int i = 1 ; i < shardCount ; i++) {
+				if(loads[i] < loads[lightest]) {
+					lightest = i;
+				}
+			}
+			loads[lightest] += runnerWeights.get(runner);
+			shards.put(runner, lightest);
+		}
+		log.info("Shard partition of " + runners.size() + " test runs, input hash " + getHash(sorted, runnerWeights) + " (must be the same on all agents)");
+
+		List<TestCaseRunner> result = new LinkedList<TestCaseRunner>();
+		for(TestCaseRunner runner : runners) {
+			if(shards.get(runner) == shardIndex) {
+				result.add(runner);
+			}
+		}
+
+		long min = Long.MAX_VALUE, max = 0;
+		for(long load : loads) {
+			min = Math.min(min, load);
+			max = Math.max(max, load);
+		}
+		log.info("Shard " + shardIndex + "/" + shardCount + ": " + result.size() + " of " + runners.size() + " test runs, weight " + loads[shardIndex] + " (shards between " + min + " and " + max + ")");
+
+		return result;
+	}
+
+	/**
+	 * Hash the partition input: the runs, in assignment order, and their weight
+	 * @param sorted  The runners, in assignment order
+	 * @param weights The weight of each runner
+	 * @return Returns the hash, in hexadecimal
+	 */
+	protected static String getHash(List<TestCaseRunner> sorted, Map<TestCaseRunner,Long> weights) {
+		CRC32 hash = new CRC32();
+		try {
+			for(TestCaseRunner runner : sorted) {
+				hash.update((runner + "=" + weights.get(runner) + "\n").getBytes("UTF-8"));
+			}
+		}
+		catch(UnsupportedEncodingException e) {
+			throw new RuntimeException(e); // UTF-8 is always supported
+		}
+		return Long.toHexString(hash.getValue());
+	}
+}
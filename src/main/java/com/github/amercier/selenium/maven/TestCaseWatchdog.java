@@ -0,0 +1,137 @@
+package com.github.amercier.selenium.maven;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Watches the running test cases of a scheduler, and aborts the ones that
+ * exceed their time budget (see {@link TestCaseRunner#getDeadline()}) or that
+ * make no progress for {@link #stallTimeout} milliseconds. The whole run is
+ * cancelled once it exceeds {@link #suiteTimeout} milliseconds.
+ *
+ * Aborted runners whose thread still hasn't terminated after
+ * {@link #GRACE_PERIOD} milliseconds are reclaimed, so that their slot is
+ * freed and the run can end.
+ */
+public class TestCaseWatchdog implements Runnable {
+
+	/**
+	 * Delay between two consecutive checks, in milliseconds
+	 */
+	public static final long CHECK_INTERVAL = 1000;
+
+	/**
+	 * Delay given to an aborted runner to terminate, in milliseconds
+	 */
+	public static final long GRACE_PERIOD = 10000;
+
+	/**
+	 * The watched scheduler
+	 */
+	protected TestCaseScheduler scheduler;
+
+	/**
+	 * Maximum delay without progress of a runner, in milliseconds (0 means unlimited)
+	 */
+	protected long stallTimeout;
+
+	/**
+	 * Maximum duration of the whole run, in milliseconds (0 means unlimited)
+	 */
+	protected long suiteTimeout;
+
+	/**
+	 * Log
+	 */
+	protected Log log;
+
+	protected long startTime;
+
+	protected int abortCount;
+
+	/**
+	 * Create a watchdog
+	 * @param scheduler    The watched scheduler
+	 * @param stallTimeout Maximum delay without progress of a runner, in milliseconds (0 means unlimited)
+	 * @param suiteTimeout Maximum duration of the whole run, in milliseconds (0 means unlimited)
+	 * @param log          The log
+	 */
+	public TestCaseWatchdog(TestCaseScheduler scheduler, long stallTimeout, long suiteTimeout, Log log) {
+		this.scheduler = scheduler;
+		this.stallTimeout = stallTimeout;
+		this.suiteTimeout = suiteTimeout;
+		this.log = log;
+		this.startTime = System.currentTimeMillis();
+		this.abortCount = 0;
+	}
+
+	public long getStallTimeout() {
+		return stallTimeout;
+	}
+
+	public long getSuiteTimeout() {
+		return suiteTimeout;
+	}
+
+	/**
+	 * Check the runners until interrupted
+	 */
+	public void run() {
+		startTime = System.currentTimeMillis();
+		try {
+			while(!Thread.currentThread().isInterrupted()) {
+				Thread.sleep(CHECK_INTERVAL);
+				check(System.currentTimeMillis());
+			}
+		}
+		catch(InterruptedException e) {} // stopped by the scheduler
+	}
+
+	/**
+	 * Abort the runners that are over budget or stalled, and reclaim the
+	 * aborted ones that do not terminate
+	 * @param now The current time, in milliseconds
+	 */
+	protected void check(long now) {
+		if(getSuiteTimeout() > 0 && now - startTime > getSuiteTimeout() && !scheduler.isCancelled()) {
+			scheduler.cancel("suite timeout of " + getSuiteTimeout() + " ms exceeded");
+		}
+
+		for(TestCaseRunner runner : scheduler.getRunning()) {
+			if(runner.isAborted()) {
+				if(now - runner.getAbortTime() > GRACE_PERIOD) {
+					scheduler.reclaim(runner);
+				}
+			}
+			else if(runner.getDeadline() > 0 && now > runner.getDeadline()) {
+				abort(runner, "test case timed out after " + runner.getTestTimeout() + " ms");
+			}
+			else if(getStallTimeout() > 0 && runner.isRunning() && now - runner.getLastProgress() > getStallTimeout()) {
+				abort(runner, "test case stalled, no progress for " + (now - runner.getLastProgress()) + " ms");
+			}
+		}
+	}
+
+	/**
+	 * Log the state of a runner, and abort it in the background as closing
+	 * its session may block
+	 * @param runner  The runner
+	 * @param message The reason
+	 */
+	protected void abort(final TestCaseRunner runner, final String message) {
+		StringBuilder dump = new StringBuilder(runner + " " + message + ", aborting");
+		dump.append("\n\tCurrent command: " + (runner.getCurrentCommand() == null ? "none (waiting for a session)" : runner.getCurrentCommand()));
+		StackTraceElement[] stackTrace = runner.getThreadStackTrace();
+		if(stackTrace != null) {
+			for(StackTraceElement element : stackTrace) {
+				dump.append("\n\tat " + element);
+			}
+		}
+		log.warn(dump.toString());
+
+		new Thread(new Runnable() {
+			public void run() {
+				runner.timeOut(message);
+			}
+		}, "selenese-abort-" + (++abortCount)).start();
+	}
+}
@@ -0,0 +1,159 @@
+package com.github.amercier.selenium.maven;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import com.github.amercier.selenium.maven.configuration.DesiredCapabilities;
+import com.github.amercier.selenium.selenese.SeleneseTestCase;
+
+/**
+ * Durations of the previous runs of each test case on each configuration,
+ * persisted as a properties file:
+ *
+ *     &lt;test case name&gt; @ &lt;configuration&gt;=&lt;duration in milliseconds&gt;
+ *
+ * A new duration is averaged with the recorded one, so that a single slow
+ * run does not completely change the estimate.
+ */
+public class TestDurationHistory {
+
+	/**
+	 * The history file
+	 */
+	protected File file;
+
+	/**
+	 * Log
+	 */
+	protected Log log;
+
+	/**
+	 * Recorded durations, in milliseconds
+	 */
+	protected Properties durations;
+
+	/**
+	 * Create a duration history
+	 * @param file The history file
+	 * @param log  The log
+	 */
+	public TestDurationHistory(File file, Log log) {
+		this.file = file;
+		this.log = log;
+		this.durations = new Properties();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	protected String getKey(SeleneseTestCase testCase, DesiredCapabilities capability) {
+		return testCase.getName() + " @ " + capability;
+	}
+
+	/**
+	 * Read the history file, if it exists
+	 */
+	synchronized public void load() {
+		if(!file.exists()) {
+			log.debug("No test duration history found at " + file);
+			return;
+		}
+		InputStream input = null;
+		try {
+			input = new FileInputStream(file);
+			durations.load(input);
+			log.debug("Read " + durations.size() + " test duration(s) from " + file);
+		}
+		catch(IOException e) {
+			log.warn("Can't read test duration history " + file + " (" + e.getMessage() + ")");
+		}
+		finally {
+			IOUtils.closeQuietly(input);
+		}
+	}
+
+	/**
+	 * Write the history file
+	 */
+	synchronized public void save() {
+		OutputStream output = null;
+		try {
+			if(file.getParentFile() != null) {
+				file.getParentFile().mkdirs();
+			}
+			output = new FileOutputStream(file);
+			durations.store(output, "Selenese test durations (milliseconds)");
+		}
+		catch(IOException e) {
+			log.warn("Can't write test duration history " + file + " (" + e.getMessage() + ")");
+		}
+		finally {
+			IOUtils.closeQuietly(output);
+		}
+	}
+
+	/**
+	 * Get the recorded duration of a test case on a configuration
+	 * @param testCase   The test case
+	 * @param capability The configuration
+	 * @return Returns the duration in milliseconds, or -1 if unknown
+	 */
+	synchronized public long getDuration(SeleneseTestCase testCase, DesiredCapabilities capability) {
+		String duration = durations.getProperty(getKey(testCase, capability));
+		try {
+			return duration == null ? -1 : Long.parseLong(duration);
+		}
+		catch(NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Record the duration of a run
+	 * @param runner   The terminated runner
+	 * @param duration The duration in milliseconds
+	 */
+	synchronized public void record(TestCaseRunner runner, long duration) {
+		long previous = getDuration(runner.getTestCase(), runner.getCapability());
+		durations.setProperty(getKey(runner.getTestCase(), runner.getCapability()), "" + (previous < 0 ? duration : (previous + duration) / 2));
+	}
+
+	/**
+	 * Estimate the duration of runners: the recorded duration if any,
+	 * otherwise the size of the test case (see {@link SeleneseTestCase#getSize()})
+	 * multiplied by the mean duration per size unit among the recorded
+	 * runners (or by 1 if none is recorded). The test cases are not loaded.
+	 * @param runners The runners
+	 * @return Returns the estimated duration of each runner
+	 */
+	synchronized public Map<TestCaseRunner,Long> estimate(Collection<TestCaseRunner> runners) {
+		long knownDuration = 0, knownSize = 0;
+		for(TestCaseRunner runner : runners) {
+			long duration = getDuration(runner.getTestCase(), runner.getCapability());
+			if(duration >= 0) {
+				knownDuration += duration;
+				knownSize += runner.getTestCase().getSize();
+			}
+		}
+		double unitDuration = knownSize == 0 ? 1 : (double)knownDuration / knownSize;
+
+		Map<TestCaseRunner,Long> result = new HashMap<TestCaseRunner,Long>();
+		for(TestCaseRunner runner : runners) {
+			long duration = getDuration(runner.getTestCase(), runner.getCapability());
+			result.put(runner, duration >= 0 ? duration : Math.round(runner.getTestCase().getSize() * unitDuration));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,122 @@
+package com.github.amercier.selenium.maven;
+
+/**
+ * Histogram of durations, in microseconds, with a fixed number of
+ * logarithmic buckets: exact below {@link #LINEAR_BUCKETS}, then 8 buckets
+ * per power of two (12.5% precision). Recording a duration doesn't allocate
+ * anything.
+ */
+public class TimingHistogram {
+
+	/**
+	 * Number of buckets holding a single value
+	 */
+	protected static final int LINEAR_BUCKETS = 16;
+
+	/**
+	 * Number of buckets per power of two above the linear ones
+	 */
+	protected static final int SUB_BUCKETS = 8;
+
+	/**
+	 * Highest power of two of the durations, the longer ones being counted in the last bucket
+	 */
+	protected static final int MAX_EXPONENT = 40;
+
+	/**
+	 * Total number of buckets
+	 */
+	public static final int BUCKETS = LINEAR_BUCKETS + (MAX_EXPONENT - 3) * SUB_BUCKETS;
+
+	protected final int[] buckets;
+	protected long count;
+	protected long total;
+	protected long max;
+
+	public TimingHistogram() {
+		this.buckets = new int[BUCKETS];
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Get the sum of the durations
+	 * @return Returns the sum in microseconds
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * Get the longest duration
+	 * @return Returns the duration in microseconds
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Record a duration
+	 * @param duration The duration in microseconds
+	 */
+	public void add(long duration) {
+		duration = Math.max(0, duration);
+		buckets[getBucket(duration)]++;
+		count++;
+		total += duration;
+		max = Math.max(max, duration);
+	}
+
+	/**
+	 * Add the durations of another histogram
+	 * @param histogram The other histogram
+	 */
+	public void add(TimingHistogram histogram) {
+		for(int i = 0; i < BUCKETS; i++) {
+			buckets[i] += histogram.buckets[i];
+		}
+		count += histogram.count;
+		total += histogram.total;
+		max = Math.max(max, histogram.max);
+	}
+
+	/**
+	 * Get a percentile of the durations
+	 * @param percentile The percentile, between 0 and 100
+	 * @return Returns the upper bound of the bucket holding the percentile, in
+	 *         microseconds (at most the longest duration), or 0 if empty
+	 */
+	public long getPercentile(double percentile) {
+		long rank = (long)Math.ceil(count * percentile / 100.0);
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += buckets[i];
+			if(seen >= rank && seen > 0) {
+				return i == BUCKETS - 1 ? max : Math.min(max, getUpperBound(i));
+			}
+		}
+		return max;
+	}
+
+	protected static int getBucket(long duration) {
+		if(duration < LINEAR_BUCKETS) {
+			return (int)duration;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(duration);
+		if(exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + (int)((duration >> (exponent - 3)) & (SUB_BUCKETS - 1));
+	}
+
+	protected static long getUpperBound(int bucket) {
+		if(bucket < LINEAR_BUCKETS) {
+			return bucket;
+		}
+		int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+		long subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+		return ((SUB_BUCKETS + subBucket + 1) << (exponent - 3)) - 1;
+	}
+}
@@ -0,0 +1,164 @@
+package com.github.amercier.selenium.maven;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONObject;
+
+/**
+ * Writes a timeline of the run in the Chrome trace event format (JSON
+ * array format), to be loaded in chrome://tracing or Perfetto. Each grid
+ * node is a process, and each runner thread a thread of the node it ran
+ * on, so that idle slots, stragglers and slow nodes are easy to spot.
+ *
+ * Each runner writes its spans once terminated. As the trace viewers
+ * accept an unterminated array, the timeline of a killed build can still be
+ * loaded.
+ */
+public class TraceWriter {
+
+	/**
+	 * A span of time on a runner thread
+	 */
+	public static class Span {
+
+		protected final String name;
+		protected final String category;
+		protected final long start;
+		protected final long end;
+
+		/**
+		 * Create a span
+		 * @param name     The span name
+		 * @param category The span category (session, command, wait, sleep, screenshot, ...)
+		 * @param start    The start time, in microseconds since the trace start
+		 * @param end      The end time, in microseconds since the trace start
+		 */
+		public Span(String name, String category, long start, long end) {
+			this.name = name;
+			this.category = category;
+			this.start = start;
+			this.end = end;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getCategory() {
+			return category;
+		}
+
+		public long getStart() {
+			return start;
+		}
+
+		public long getEnd() {
+			return end;
+		}
+	}
+
+	/**
+	 * The trace file
+	 */
+	protected final File file;
+
+	protected final Writer writer;
+
+	/**
+	 * Origin of the trace times, in nanoseconds (see {@link System#nanoTime()})
+	 */
+	protected final long origin;
+
+	/**
+	 * Process identifiers, by node name
+	 */
+	protected final Map<String,Integer> processes;
+
+	/**
+	 * Thread identifiers, by process identifier and thread name
+	 */
+	protected final Map<String,Integer> threads;
+
+	/**
+	 * Number of events written
+	 */
+	protected int events;
+
+	/**
+	 * Create a trace writer, the trace starting now
+	 * @param file The trace file, created or overwritten
+	 * @throws IOException if the file can't be created
+	 */
+	public TraceWriter(File file) throws IOException {
+		this.file = file;
+		this.writer = new BufferedWriter(new OutputStreamWriter(FileUtils.openOutputStream(file), "UTF-8"));
+		this.origin = System.nanoTime();
+		this.processes = new HashMap<String,Integer>();
+		this.threads = new HashMap<String,Integer>();
+		writer.write("[");
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Get the current trace time
+	 * @return Returns the time in microseconds since the trace start
+	 */
+	public long now() {
+		return (System.nanoTime() - origin) / 1000;
+	}
+
+	/**
+	 * Write the spans of a runner
+	 * @param node   The grid node the runner ran on
+	 * @param thread The runner thread name
+	 * @param spans  The spans
+	 * @throws IOException
+	 */
+	public synchronized void write(String node, String thread, List<Span> spans) throws IOException {
+		Integer pid = processes.get(node);
+		if(pid == null) {
+			pid = processes.size() + 1;
+			processes.put(node, pid);
+			event("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":" + pid + ",\"args\":{\"name\":" + JSONObject.quote(node) + "}}");
+		}
+		Integer tid = threads.get(pid + " " + thread);
+		if(tid == null) {
+			tid = threads.size() + 1;
+			threads.put(pid + " " + thread, tid);
+			event("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":" + pid + ",\"tid\":" + tid + ",\"args\":{\"name\":" + JSONObject.quote(thread) + "}}");
+		}
+		for(Span span : spans) {
+			event("{\"name\":" + JSONObject.quote(span.getName()) + ",\"cat\":" + JSONObject.quote(span.getCategory()) + ",\"ph\":\"X\",\"ts\":" + span.getStart() + ",\"dur\":" + Math.max(0, span.getEnd() - span.getStart()) + ",\"pid\":" + pid + ",\"tid\":" + tid + "}");
+		}
+		writer.flush();
+	}
+
+	protected void event(String event) throws IOException {
+		writer.write(events++ == 0 ? "\n" : ",\n");
+		writer.write(event);
+	}
+
+	/**
+	 * Terminate the trace and close the file
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		try {
+			writer.write("\n]\n");
+		}
+		finally {
+			writer.close();
+		}
+	}
+}
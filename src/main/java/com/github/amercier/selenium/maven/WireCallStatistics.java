@@ -0,0 +1,217 @@
+package com.github.amercier.selenium.maven;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.github.amercier.selenium.selenese.ArgumentType;
+import com.github.amercier.selenium.selenese.CompiledCommand;
+
+/**
+ * WebDriver commands sent to the remote server (wire calls): their number
+ * and latency by WebDriver command, and the number of calls caused by each
+ * Selenese command and by each element locator.
+ *
+ * A runner records its own calls, attributing them to its current command,
+ * then the statistics of the runners are added up (see
+ * {@link #add(WireCallStatistics)}), the Selenese commands being identified
+ * by their text.
+ */
+public class WireCallStatistics {
+
+	/**
+	 * Index of the number of calls in the counters
+	 */
+	protected static final int CALLS = 0;
+
+	/**
+	 * Index of the total duration of the calls in the counters, in nanoseconds
+	 */
+	protected static final int TIME = 1;
+
+	/**
+	 * Index of the number of executions in the counters
+	 */
+	protected static final int EXECUTIONS = 2;
+
+	/**
+	 * Latency of the calls by WebDriver command, in microseconds
+	 */
+	protected final Map<String,TimingHistogram> wireCommands;
+
+	/**
+	 * Counters of the commands of a runner
+	 */
+	protected final Map<CompiledCommand,long[]> commands;
+
+	/**
+	 * Counters of the commands of all runners, by command text
+	 */
+	protected final Map<String,long[]> commandTotals;
+
+	/**
+	 * Counters of the commands acting on elements, by raw locator
+	 */
+	protected final Map<String,long[]> locators;
+
+	public WireCallStatistics() {
+		this.wireCommands = new TreeMap<String,TimingHistogram>();
+		this.commands = new HashMap<CompiledCommand,long[]>();
+		this.commandTotals = new HashMap<String,long[]>();
+		this.locators = new HashMap<String,long[]>();
+	}
+
+	/**
+	 * Record a wire call
+	 * @param command     The Selenese command being executed, null if none
+	 * @param wireCommand The WebDriver command name
+	 * @param duration    The duration of the call, in nanoseconds
+	 */
+	public void record(CompiledCommand command, String wireCommand, long duration) {
+		TimingHistogram histogram = wireCommands.get(wireCommand);
+		if(histogram == null) {
+			histogram = new TimingHistogram();
+			wireCommands.put(wireCommand, histogram);
+		}
+		histogram.add(duration / 1000);
+		if(command != null) {
+			long[] counters = getCounters(commands, command);
+			counters[CALLS]++;
+			counters[TIME] += duration;
+			String locator = getLocator(command);
+			if(locator != null) {
+				counters = getCounters(locators, locator);
+				counters[CALLS]++;
+				counters[TIME] += duration;
+			}
+		}
+	}
+
+	/**
+	 * Record the execution of a Selenese command, to report the number of calls per execution
+	 * @param command The command
+	 */
+	public void recordExecution(CompiledCommand command) {
+		getCounters(commands, command)[EXECUTIONS]++;
+		String locator = getLocator(command);
+		if(locator != null) {
+			getCounters(locators, locator)[EXECUTIONS]++;
+		}
+	}
+
+	/**
+	 * Add the statistics of a runner
+	 * @param statistics The statistics of the runner
+	 */
+	public synchronized void add(WireCallStatistics statistics) {
+		for(Map.Entry<String,TimingHistogram> entry : statistics.wireCommands.entrySet()) {
+			TimingHistogram histogram = wireCommands.get(entry.getKey());
+			if(histogram == null) {
+				histogram = new TimingHistogram();
+				wireCommands.put(entry.getKey(), histogram);
+			}
+			histogram.add(entry.getValue());
+		}
+		for(Map.Entry<CompiledCommand,long[]> entry : statistics.commands.entrySet()) {
+			add(getCounters(commandTotals, entry.getKey().toString()), entry.getValue());
+		}
+		for(Map.Entry<String,long[]> entry : statistics.commandTotals.entrySet()) {
+			add(getCounters(commandTotals, entry.getKey()), entry.getValue());
+		}
+		for(Map.Entry<String,long[]> entry : statistics.locators.entrySet()) {
+			add(getCounters(locators, entry.getKey()), entry.getValue());
+		}
+	}
+
+	/**
+	 * Get the total number of calls
+	 */
+	public synchronized long getCalls() {
+		long calls = 0;
+		for(TimingHistogram histogram : wireCommands.values()) {
+			calls += histogram.getCount();
+		}
+		return calls;
+	}
+
+	/**
+	 * Get a report of the calls: the number and latency of the calls by
+	 * WebDriver command, then the commands and locators causing the most
+	 * calls (the commands being listed once added, see {@link #add(WireCallStatistics)})
+	 * @param top Maximum number of commands and locators listed
+	 * @return Returns the report, one line per item
+	 */
+	public synchronized String toString(int top) {
+		StringBuilder report = new StringBuilder();
+		long calls = 0, time = 0;
+		for(TimingHistogram histogram : wireCommands.values()) {
+			calls += histogram.getCount();
+			time += histogram.getTotal();
+		}
+		report.append(calls).append(" wire call(s) in ").append(time / 1000000.0).append(" s\n");
+		for(Map.Entry<String,TimingHistogram> entry : wireCommands.entrySet()) {
+			TimingHistogram histogram = entry.getValue();
+			report.append("  ").append(entry.getKey()).append(": ").append(histogram.getCount()).append(" call(s)")
+			      .append(", p50 ").append(histogram.getPercentile(50) / 1000.0)
+			      .append(" ms, p95 ").append(histogram.getPercentile(95) / 1000.0)
+			      .append(" ms, max ").append(histogram.getMax() / 1000.0).append(" ms\n");
+		}
+		appendTop(report, "Chattiest commands", commandTotals, top);
+		appendTop(report, "Chattiest locators", locators, top);
+		return report.toString();
+	}
+
+	@Override
+	public String toString() {
+		return toString(Integer.MAX_VALUE);
+	}
+
+	protected static void appendTop(StringBuilder report, String title, Map<String,long[]> counters, int top) {
+		List<Map.Entry<String,long[]>> entries = new ArrayList<Map.Entry<String,long[]>>(counters.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String,long[]>>() {
+			public int compare(Map.Entry<String,long[]> a, Map.Entry<String,long[]> b) {
+				return a.getValue()[CALLS] == b.getValue()[CALLS] ? a.getKey().compareTo(b.getKey()) : (a.getValue()[CALLS] > b.getValue()[CALLS] ? -1 : 1);
+			}
+		});
+		report.append(title).append(":\n");
+		for(Map.Entry<String,long[]> entry : entries.subList(0, Math.min(top, entries.size()))) {
+			long[] values = entry.getValue();
+			report.append("  ").append(values[CALLS]).append(" call(s) in ").append(values[TIME] / 1000000000.0).append(" s");
+			if(values[EXECUTIONS] > 0) {
+				report.append(", ").append(Math.round(values[CALLS] * 10.0 / values[EXECUTIONS]) / 10.0).append(" per execution");
+			}
+			report.append(": ").append(entry.getKey()).append("\n");
+		}
+	}
+
+	protected static <K> long[] getCounters(Map<K,long[]> counters, K key) {
+		long[] values = counters.get(key);
+		if(values == null) {
+			values = new long[3];
+			counters.put(key, values);
+		}
+		return values;
+	}
+
+	protected static void add(long[] counters, long[] values) {
+		for(int i = 0; i < counters.length; i++) {
+			counters[i] += values[i];
+		}
+	}
+
+	/**
+	 * Get the locator of a command acting on elements
+	 * @param command The command
+	 * @return Returns the raw locator, or null if the command doesn't act on elements
+	 */
+	protected static String getLocator(CompiledCommand command) {
+		if(command.getAction().getArgumentsCount() > 0 && command.getAction().getArgumentType(0) == ArgumentType.ELEMENT) {
+			return command.getCommand().getRawArgument(0);
+		}
+		return null;
+	}
+}
@@ -20,6 +20,13 @@ import com.github.amercier.selenium.exceptions.UnknownPlatformException;
  *         <version>3.6</browser
  *         <platform>WINDOWS</platform>
  *     </desiredCapabilities>
+ *     
+ * Internet Explorer, at most 2 simultaneous tests:
+ * 
+ *     <desiredCapabilities>
+ *         <browser>internet explorer</browser>
+ *         <maxInstances>2</maxInstances>
+ *     </desiredCapabilities>
  */
 public class DesiredCapabilities {
 
@@ -39,6 +46,14 @@ public class DesiredCapabilities {
 	 */
 	public String platform = null;
 	
+	/**
+	 * Maximum number of tests running simultaneously on this configuration
+	 * (0 means no limit other than the global one)
+	 * 
+	 * @parameter
+	 */
+	public int maxInstances = 0;
+	
 	/**
 	 * Platfof
 	 * @param platform The platform. Must be one of the {@link Platform possible values} 
@@ -1,41 +1,68 @@
 package com.github.amercier.selenium.selenese;
 
+import static com.github.amercier.selenium.selenese.ArgumentType.*;
 
 public enum Action {
 	
-	assertLocation(1),
-	assertElementPresent(1),
-	assertElementNotPresent(1),
-	assertEval(2),
-	assertNotVisible(1),
-	assertText(2),
-	assertVisible(1),
-	check(1),
-	click(1),
-	dragAndDropToObject(2),
-	echo(1),
-	getEval(1),
-	open(1),
-	pause(1),
-	select(2),
-	storeEval(2),
-	type(2),
-	uncheck(1),
-	waitForElementNotPresent(1),
-	waitForElementPresent(1),
-	waitForEval(2),
-	waitForLocation(1),
-	waitForNotEval(2),
-	waitForNotLocation(1),
-	waitForVisible(1);
-	
-	private final int argumentsCount;
-	
-	private Action(int argumentsCount) {
-		this.argumentsCount = argumentsCount;
+	assertLocation(PATTERN),
+	assertElementPresent(ELEMENT),
+	assertElementNotPresent(ELEMENT),
+	assertEval(TEXT, TEXT),
+	assertNotVisible(ELEMENT),
+	assertText(ELEMENT, PATTERN),
+	assertVisible(ELEMENT),
+	check(true, ELEMENT),
+	click(true, ELEMENT),
+	dragAndDropToObject(true, ELEMENT, ELEMENT),
+	echo(TEXT),
+	getEval(TEXT),
+	open(true, TEXT),
+	pause(NUMBER),
+	select(true, ELEMENT, OPTION),
+	storeEval(TEXT, TEXT),
+	type(true, ELEMENT, TEXT),
+	uncheck(true, ELEMENT),
+	waitForElementNotPresent(ELEMENT),
+	waitForElementPresent(ELEMENT),
+	waitForEval(TEXT, TEXT),
+	waitForLocation(PATTERN),
+	waitForNotEval(TEXT, TEXT),
+	waitForNotLocation(PATTERN),
+	waitForVisible(ELEMENT);
+	
+	private final ArgumentType[] argumentTypes;
+	
+	/**
+	 * Whether the action interacts with the page, and may therefore trigger
+	 * a page load, requests or animations
+	 */
+	private final boolean interaction;
+	
+	private Action(ArgumentType... argumentTypes) {
+		this(false, argumentTypes);
+	}
+	
+	private Action(boolean interaction, ArgumentType... argumentTypes) {
+		this.argumentTypes = argumentTypes;
+		this.interaction = interaction;
 	}
 	
 	public int getArgumentsCount() {
-		return argumentsCount;
+		return argumentTypes.length;
+	}
+	
+	public ArgumentType getArgumentType(int index) {
+		return argumentTypes[index];
+	}
+	
+	public boolean isInteraction() {
+		return interaction;
+	}
+	
+	/**
+	 * Tell whether the action waits for a condition
+	 */
+	public boolean isWait() {
+		return name().startsWith("waitFor");
 	}
 }
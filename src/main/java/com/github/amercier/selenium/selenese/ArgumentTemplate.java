@@ -0,0 +1,110 @@
+package com.github.amercier.selenium.selenese;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A command argument parsed once into literal and variable (${variable})
+ * segments, so that it can be rendered in a single pass. Undefined variables
+ * are rendered as is.
+ * 
+ * Templates are immutable, and can therefore be shared by all the runs of a
+ * test case.
+ */
+public class ArgumentTemplate {
+	
+	/**
+	 * Variable pattern: ${variable}
+	 */
+	public static final Pattern PATTERN_VARIABLE = Pattern.compile("\\$\\{([^\\}]+)\\}");
+	
+	/**
+	 * Rendering buffer, reused by each thread
+	 */
+	protected static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder();
+		}
+	};
+	
+	protected final String source;
+	
+	/**
+	 * Literal segments: one before each variable, and one after the last variable
+	 */
+	protected final String[] literals;
+	
+	/**
+	 * Variable names, in order of appearance
+	 */
+	protected final String[] variables;
+	
+	/**
+	 * Parse an argument
+	 * @param source The argument
+	 */
+	public ArgumentTemplate(String source) {
+		this.source = source;
+		List<String> literals = new LinkedList<String>();
+		List<String> variables = new LinkedList<String>();
+		Matcher matcher = PATTERN_VARIABLE.matcher(source);
+		int end = 0;
+		while(matcher.find()) {
+			literals.add(source.substring(end, matcher.start()));
+			variables.add(matcher.group(1));
+			end = matcher.end();
+		}
+		literals.add(source.substring(end));
+		this.literals = literals.toArray(new String[0]);
+		this.variables = variables.toArray(new String[0]);
+	}
+	
+	public String getSource() {
+		return source;
+	}
+	
+	public boolean hasVariables() {
+		return variables.length > 0;
+	}
+	
+	/**
+	 * Get the names of the variables used by the argument
+	 */
+	public String[] getVariables() {
+		return variables.clone();
+	}
+	
+	/**
+	 * Render the argument
+	 * @param values The variable values
+	 * @return Returns the argument, variables substituted
+	 */
+	public String render(Map<String,String> values) {
+		if(variables.length == 0) {
+			return source;
+		}
+		StringBuilder buffer = BUFFER.get();
+		buffer.setLength(0);
+		buffer.append(literals[0]);
+		for(int i = 0 ; i < variables.length ; i++) {
+			String value = values.get(variables[i]);
+			if(value == null) {
+				buffer.append("${").append(variables[i]).append('}');
+			}
+			else {
+				buffer.append(value);
+			}
+			buffer.append(literals[i + 1]);
+		}
+		return buffer.toString();
+	}
+	
+	@Override
+	public String toString() {
+		return source;
+	}
+}
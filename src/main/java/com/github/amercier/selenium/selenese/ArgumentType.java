@@ -0,0 +1,61 @@
+package com.github.amercier.selenium.selenese;
+
+import java.util.regex.PatternSyntaxException;
+
+import com.github.amercier.selenium.exceptions.InvalidSeleneseCommandArgumentException;
+
+
+/**
+ * Types of Selenese command arguments, telling how an argument is parsed
+ */
+public enum ArgumentType {
+	
+	/**
+	 * Plain text, such as a URL, a script or an expected value
+	 */
+	TEXT,
+	
+	/**
+	 * Element locator (see {@link ElementLocator})
+	 */
+	ELEMENT,
+	
+	/**
+	 * Option locator (see {@link OptionLocator})
+	 */
+	OPTION,
+	
+	/**
+	 * String-match pattern (see {@link StringMatchPattern})
+	 */
+	PATTERN,
+	
+	/**
+	 * Integer number, such as a delay
+	 */
+	NUMBER;
+	
+	/**
+	 * Parse an argument
+	 * @param argument The argument, variables already substituted
+	 * @return Returns the parsed argument: a By for locators, a Pattern for
+	 *         patterns, a Long for numbers, or the argument itself for text
+	 * @throws InvalidSeleneseCommandArgumentException if the argument is
+	 *         invalid, including when rejected by the underlying parser (an
+	 *         invalid regular expression for instance)
+	 */
+	public Object parse(String argument) throws InvalidSeleneseCommandArgumentException {
+		try {
+			switch(this) {
+				case ELEMENT: return ElementLocator.parse(argument);
+				case OPTION : return OptionLocator.parse(argument);
+				case PATTERN: return StringMatchPattern.parse(argument);
+				case NUMBER : return Long.valueOf(argument.trim());
+				default     : return argument;
+			}
+		}
+		catch(IllegalArgumentException e) { // including PatternSyntaxException and NumberFormatException
+			throw new InvalidSeleneseCommandArgumentException(argument, e instanceof PatternSyntaxException ? "invalid regular expression: " + ((PatternSyntaxException)e).getDescription() : e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package com.github.amercier.selenium.selenese;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.openqa.selenium.By;
+
+import com.github.amercier.selenium.exceptions.InvalidSeleneseCommandArgumentException;
+import com.github.amercier.selenium.exceptions.InvalidSeleneseCommandException;
+
+/**
+ * A command ready to be executed: its arguments are parsed once for all
+ * according to their type (see {@link ArgumentType}), except the ones
+ * containing variables (${variable}), which are rendered from their template
+ * (see {@link ArgumentTemplate}) and parsed at each execution.
+ * 
+ * A compiled command is immutable, so that it can be shared by all the runs
+ * of a test case.
+ */
+public class CompiledCommand {
+	
+	/**
+	 * The source command
+	 */
+	protected final SeleneseCommand command;
+	
+	/**
+	 * Argument templates
+	 */
+	protected final ArgumentTemplate[] arguments;
+	
+	/**
+	 * Parsed arguments, or null for the arguments containing variables
+	 */
+	protected final Object[] parsedArguments;
+	
+	/**
+	 * Compile a command
+	 * @param command The command
+	 * @throws InvalidSeleneseCommandException if an argument without variables is invalid
+	 */
+	public CompiledCommand(SeleneseCommand command) throws InvalidSeleneseCommandException {
+		this.command = command;
+		String[] rawArguments = command.getRawArguments();
+		this.arguments = new ArgumentTemplate[rawArguments.length];
+		this.parsedArguments = new Object[rawArguments.length];
+		for(int i = 0 ; i < rawArguments.length ; i++) {
+			arguments[i] = new ArgumentTemplate(rawArguments[i]);
+			if(!arguments[i].hasVariables()) {
+				try {
+					parsedArguments[i] = getArgumentType(i).parse(rawArguments[i]);
+				}
+				catch(InvalidSeleneseCommandArgumentException e) {
+					throw new InvalidSeleneseCommandException(command, "argument " + e.argument + " is invalid" + (e.reason == null ? "" : ": " + e.reason));
+				}
+			}
+		}
+	}
+	
+	public SeleneseCommand getCommand() {
+		return command;
+	}
+	
+	public Action getAction() {
+		return command.getAction();
+	}
+	
+	protected ArgumentType getArgumentType(int index) {
+		return index < getAction().getArgumentsCount() ? getAction().getArgumentType(index) : ArgumentType.TEXT;
+	}
+	
+	/**
+	 * Tell whether at least one argument contains variables
+	 */
+	public boolean hasVariables() {
+		for(ArgumentTemplate argument : arguments) {
+			if(argument.hasVariables()) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Get the names of the variables used by the arguments
+	 */
+	public List<String> getVariables() {
+		List<String> variables = new LinkedList<String>();
+		for(ArgumentTemplate argument : arguments) {
+			variables.addAll(Arrays.asList(argument.getVariables()));
+		}
+		return variables;
+	}
+	
+	/**
+	 * Get an argument, variables substituted
+	 * @param index     The argument index
+	 * @param variables The variables
+	 * @return Returns the argument
+	 */
+	public String getArgument(int index, Map<String,String> variables) {
+		return arguments[index].render(variables);
+	}
+	
+	/**
+	 * Get a parsed argument, parsing it now if it contains variables
+	 * @param index     The argument index
+	 * @param variables The variables
+	 * @return Returns the parsed argument (see {@link ArgumentType#parse(String)})
+	 * @throws InvalidSeleneseCommandArgumentException
+	 */
+	public Object getParsedArgument(int index, Map<String,String> variables) throws InvalidSeleneseCommandArgumentException {
+		return parsedArguments[index] != null ? parsedArguments[index] : getArgumentType(index).parse(getArgument(index, variables));
+	}
+	
+	/**
+	 * Get an element or option locator argument
+	 */
+	public By getLocator(int index, Map<String,String> variables) throws InvalidSeleneseCommandArgumentException {
+		return (By)getParsedArgument(index, variables);
+	}
+	
+	/**
+	 * Get a string-match pattern argument
+	 */
+	public Pattern getPattern(int index, Map<String,String> variables) throws InvalidSeleneseCommandArgumentException {
+		return (Pattern)getParsedArgument(index, variables);
+	}
+	
+	/**
+	 * Get a number argument
+	 */
+	public long getNumber(int index, Map<String,String> variables) throws InvalidSeleneseCommandArgumentException {
+		return ((Long)getParsedArgument(index, variables)).longValue();
+	}
+	
+	@Override
+	public String toString() {
+		return command.toString();
+	}
+	
+	/**
+	 * Get the string representation of the command, variables substituted
+	 * @param variables The variables
+	 */
+	public String toString(Map<String,String> variables) {
+		String[] arguments = new String[this.arguments.length];
+		for(int i = 0 ; i < arguments.length ; i++) {
+			arguments[i] = getArgument(i, variables);
+		}
+		return getAction() + "(" + Arrays.toString(arguments).replaceAll("(^\\[|\\]$)", "") + ")";
+	}
+}
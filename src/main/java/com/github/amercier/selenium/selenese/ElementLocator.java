@@ -1,15 +1,29 @@
 package com.github.amercier.selenium.selenese;
 
+import java.util.Iterator;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
 import org.openqa.selenium.By;
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.WebElement;
 
 import com.github.amercier.selenium.exceptions.InvalidSeleneseCommandArgumentException;
 
 /**
  * Element locators.
  * See {@link http://release.seleniumhq.org/selenium-core/1.0.1/reference.html#locators}
+ *
+ * Locators are checked when parsed, so that an invalid one is reported when
+ * the test case is compiled rather than when run: XPath expressions must
+ * compile, CSS selectors must have balanced brackets and quotes, and an
+ * unprefixed locator can't be empty nor start with an unknown "type=" prefix.
  */
 public enum ElementLocator {
 	
@@ -19,6 +33,35 @@ public enum ElementLocator {
 	XPATH(Pattern.compile("^(xpath=)?(\\(?//.*)$"), 2),
 	ID   (Pattern.compile("^(id(entifier)?=)?(.*)$"), 3); // ID must be the last one as it matches everything
 	
+	/**
+	 * Parsed locators, by Selenese locator
+	 */
+	private static final ParseCache<By> CACHE = new ParseCache<By>();
+	
+	/**
+	 * Prefix of a locator type, as recognized by Selenium Core
+	 */
+	private static final Pattern TYPE_PREFIX = Pattern.compile("^([A-Za-z]+)=");
+	
+	/**
+	 * XPath compiler, checking the XPath locators (not thread-safe)
+	 */
+	private static final XPath XPATH_COMPILER = XPathFactory.newInstance().newXPath();
+	static {
+		// Any prefix is accepted, the namespaces being resolved by the browser
+		XPATH_COMPILER.setNamespaceContext(new NamespaceContext() {
+			public String getNamespaceURI(String prefix) {
+				return "urn:selenese:" + prefix;
+			}
+			public String getPrefix(String namespaceURI) {
+				return null;
+			}
+			public Iterator getPrefixes(String namespaceURI) {
+				return null;
+			}
+		});
+	}
+	
 	private final Pattern pattern;
 	private final int     group;
 	
@@ -36,19 +79,130 @@ public enum ElementLocator {
 		return matcher.find() ? matcher.group(group) : null;
 	}
 	
+	/**
+	 * Parse a Selenese locator, or get it from the cache
+	 * @param elementLocator The locator
+	 * @return Returns the corresponding By
+	 * @throws InvalidSeleneseCommandArgumentException
+	 */
 	public static By parse(String elementLocator) throws InvalidSeleneseCommandArgumentException {
+		By result = CACHE.get(elementLocator);
+		if(result == null) {
+			result = compile(elementLocator);
+			CACHE.put(elementLocator, result);
+		}
+		return result;
+	}
+	
+	protected static By compile(String elementLocator) throws InvalidSeleneseCommandArgumentException {
 		String matched;
 		for(ElementLocator locator : ElementLocator.values()) {
 			if((matched = locator.find(elementLocator)) != null) {
 				switch(locator) {
-					case ID   : return By.id(matched);
-					case NAME : return By.name(matched);
-					case XPATH: return By.xpath(matched);
-					case LINK : return By.linkText(matched);
-					case CSS  : return By.cssSelector(matched);
+					case ID   : checkId(elementLocator, matched); return new Locator(locator, matched, By.id(matched));
+					case NAME : return new Locator(locator, matched, By.name(matched));
+					case XPATH: checkXPath(elementLocator, matched); return new Locator(locator, matched, By.xpath(matched));
+					case LINK : return new Locator(locator, matched, By.linkText(matched));
+					case CSS  : checkCss(elementLocator, matched); return new Locator(locator, matched, By.cssSelector(matched));
 				}
 			}
 		}
 		throw new InvalidSeleneseCommandArgumentException(elementLocator);
 	}
+	
+	protected static void checkId(String elementLocator, String id) throws InvalidSeleneseCommandArgumentException {
+		if(id.length() == 0) {
+			throw new InvalidSeleneseCommandArgumentException(elementLocator, "empty locator");
+		}
+		Matcher prefix = TYPE_PREFIX.matcher(elementLocator);
+		if(prefix.find() && !prefix.group(1).equals("id") && !prefix.group(1).equals("identifier")) {
+			throw new InvalidSeleneseCommandArgumentException(elementLocator, "unsupported locator type " + prefix.group(1));
+		}
+	}
+	
+	protected static void checkXPath(String elementLocator, String xpath) throws InvalidSeleneseCommandArgumentException {
+		synchronized(XPATH_COMPILER) {
+			try {
+				XPATH_COMPILER.compile(xpath);
+			}
+			catch(XPathExpressionException e) {
+				Throwable cause = e.getCause() == null ? e : e.getCause();
+				throw new InvalidSeleneseCommandArgumentException(elementLocator, "invalid XPath" + (cause.getMessage() == null ? "" : ": " + cause.getMessage()));
+			}
+		}
+	}
+	
+	protected static void checkCss(String elementLocator, String css) throws InvalidSeleneseCommandArgumentException {
+		if(css.trim().length() == 0) {
+			throw new InvalidSeleneseCommandArgumentException(elementLocator, "empty CSS selector");
+		}
+		StringBuilder closing = new StringBuilder();
+		char quote = 0;
+		for(int i = 0 ; i < css.length() ; i++) {
+			char c = css.charAt(i);
+			if(c == '\\') {
+				i++;
+			}
+			else if(quote != 0) {
+				if(c == quote) {
+					quote = 0;
+				}
+			}
+			else if(c == '"' || c == '\'') {
+				quote = c;
+			}
+			else if(c == '[' || c == '(') {
+				closing.append(c == '[' ? ']' : ')');
+			}
+			else if(c == ']' || c == ')') {
+				if(closing.length() == 0 || closing.charAt(closing.length() - 1) != c) {
+					throw new InvalidSeleneseCommandArgumentException(elementLocator, "unexpected " + c + " in CSS selector");
+				}
+				closing.setLength(closing.length() - 1);
+			}
+		}
+		if(quote != 0 || closing.length() > 0) {
+			throw new InvalidSeleneseCommandArgumentException(elementLocator, "unterminated " + (quote != 0 ? "string" : closing.charAt(closing.length() - 1) == ']' ? "[" : "(") + " in CSS selector");
+		}
+	}
+	
+	/**
+	 * A By remembering the kind and value of the Selenese locator it has
+	 * been parsed from, so that the elements can also be found by a script
+	 */
+	public static class Locator extends By {
+		
+		protected final ElementLocator type;
+		protected final String value;
+		protected final By by;
+		
+		public Locator(ElementLocator type, String value, By by) {
+			this.type = type;
+			this.value = value;
+			this.by = by;
+		}
+		
+		public ElementLocator getType() {
+			return type;
+		}
+		
+		public String getValue() {
+			return value;
+		}
+		
+		@Override
+		public List<WebElement> findElements(SearchContext context) {
+			return by.findElements(context);
+		}
+		
+		@Override
+		public WebElement findElement(SearchContext context) {
+			return by.findElement(context);
+		}
+		
+		@Override
+		public String toString() {
+			return by.toString();
+		}
+	}
 }
@@ -23,6 +23,11 @@ public enum OptionLocator {
 	INDEX (Pattern.compile("^index=([0-9]*)$")),
 	ID    (Pattern.compile("^id=(.*)$"));
 	
+	/**
+	 * Parsed locators, by Selenese locator
+	 */
+	private static final ParseCache<By> CACHE = new ParseCache<By>();
+	
 	private final Pattern pattern;
 	private final int     group;
 	
@@ -40,18 +45,34 @@ public enum OptionLocator {
 		return matcher.find() ? matcher.group(group) : null;
 	}
 	
+	/**
+	 * Parse a Selenese locator, or get it from the cache
+	 * @param seleneseSelector The locator
+	 * @return Returns the corresponding By
+	 * @throws InvalidSeleneseCommandArgumentException
+	 */
 	public static By parse(String seleneseSelector) throws InvalidSeleneseCommandArgumentException {
+		By result = CACHE.get(seleneseSelector);
+		if(result == null) {
+			result = compile(seleneseSelector);
+			CACHE.put(seleneseSelector, result);
+		}
+		return result;
+	}
+	
+	protected static By compile(String seleneseSelector) throws InvalidSeleneseCommandArgumentException {
 		String matched;
 		for(OptionLocator locator : OptionLocator.values()) {
 			if((matched = locator.find(seleneseSelector)) != null) {
 				switch(locator) {
-					case ID    : return By.xpath(".//option[@id=\"" + matched + "\"]");
-					case LABEL : return By.xpath(".//option[text()=\"" + matched + "\"]");
-					case VALUE : return By.xpath(".//option[@value=\"" + matched + "\"]");
-					case INDEX : return By.xpath(".//option[" + matched + "]");
+					case ID    : return new Locator(locator, matched, By.xpath(".//option[@id=\"" + matched + "\"]"));
+					case LABEL : return new Locator(locator, matched, By.xpath(".//option[text()=\"" + matched + "\"]"));
+					case VALUE : return new Locator(locator, matched, By.xpath(".//option[@value=\"" + matched + "\"]"));
+					case INDEX : return new Locator(locator, matched, By.xpath(".//option[" + matched + "]"));
 					case REGEXP:
-						final Pattern pattern = Pattern.compile((matched.startsWith("//") ? "." : "") + matched); // replace //... by .//.. so search relatively to context
-						return new By() {
+						final String regexp = (matched.startsWith("//") ? "." : "") + matched; // replace //... by .//.. so search relatively to context
+						final Pattern pattern = Pattern.compile(regexp);
+						return new Locator(locator, regexp, new By() {
 							@Override
 							public List<WebElement> findElements(SearchContext context) {
 								List<WebElement> elements = new LinkedList<WebElement>();
@@ -63,10 +84,54 @@ public enum OptionLocator {
 								return elements;
 							}
 							
-						};
+							@Override
+							public String toString() {
+								return "By.optionLabelRegexp: " + regexp;
+							}
+						});
 				}
 			}
 		}
 		throw new InvalidSeleneseCommandArgumentException(seleneseSelector);
 	}
+	
+	/**
+	 * A By remembering the kind and value of the Selenese option locator it
+	 * has been parsed from, so that the options can also be found by a script
+	 */
+	public static class Locator extends By {
+		
+		protected final OptionLocator type;
+		protected final String value;
+		protected final By by;
+		
+		public Locator(OptionLocator type, String value, By by) {
+			this.type = type;
+			this.value = value;
+			this.by = by;
+		}
+		
+		public OptionLocator getType() {
+			return type;
+		}
+		
+		public String getValue() {
+			return value;
+		}
+		
+		@Override
+		public List<WebElement> findElements(SearchContext context) {
+			return by.findElements(context);
+		}
+		
+		@Override
+		public WebElement findElement(SearchContext context) {
+			return by.findElement(context);
+		}
+		
+		@Override
+		public String toString() {
+			return by.toString();
+		}
+	}
 }
@@ -0,0 +1,68 @@
+package com.github.amercier.selenium.selenese;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of parsed Selenese arguments (locators, patterns), shared by
+ * all the runners. The least recently used entries are evicted first. The
+ * cached values must be immutable.
+ */
+public class ParseCache<V> {
+	
+	/**
+	 * Default maximum number of entries
+	 */
+	public static final int DEFAULT_CAPACITY = 1024;
+	
+	protected final int capacity;
+	
+	protected final Map<String,V> entries;
+	
+	public ParseCache() {
+		this(DEFAULT_CAPACITY);
+	}
+	
+	public ParseCache(final int capacity) {
+		this.capacity = capacity;
+		this.entries = Collections.synchronizedMap(new LinkedHashMap<String,V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,V> eldest) {
+				return size() > capacity;
+			}
+		});
+	}
+	
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * Get a cached value
+	 * @param key The unparsed argument
+	 * @return Returns the parsed argument, or null if not cached
+	 */
+	public V get(String key) {
+		return entries.get(key);
+	}
+	
+	/**
+	 * Cache a value
+	 * @param key   The unparsed argument
+	 * @param value The parsed argument
+	 */
+	public void put(String key, V value) {
+		entries.put(key, value);
+	}
+	
+	public int size() {
+		return entries.size();
+	}
+	
+	public void clear() {
+		entries.clear();
+	}
+}
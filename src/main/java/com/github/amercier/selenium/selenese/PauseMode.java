@@ -0,0 +1,24 @@
+package com.github.amercier.selenium.selenese;
+
+
+/**
+ * How the pause command waits
+ */
+public enum PauseMode {
+	
+	/**
+	 * Sleep on the client side, without any remote call
+	 */
+	LOCAL,
+	
+	/**
+	 * Wait for a single asynchronous script calling setTimeout in the browser
+	 */
+	ASYNC_SCRIPT,
+	
+	/**
+	 * Poll the browser clock until the delay has elapsed (legacy behavior,
+	 * one remote call every 500 ms)
+	 */
+	POLLING
+}
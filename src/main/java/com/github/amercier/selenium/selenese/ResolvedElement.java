@@ -0,0 +1,45 @@
+package com.github.amercier.selenium.selenese;
+
+import org.openqa.selenium.WebElement;
+
+/**
+ * An element found by a script, together with its state at that time, so
+ * that a command can select the elements to act on without any further
+ * remote call
+ */
+public class ResolvedElement {
+	
+	protected final WebElement element;
+	protected final boolean displayed;
+	protected final boolean enabled;
+	protected final boolean checked;
+	protected final String text;
+	
+	public ResolvedElement(WebElement element, boolean displayed, boolean enabled, boolean checked, String text) {
+		this.element = element;
+		this.displayed = displayed;
+		this.enabled = enabled;
+		this.checked = checked;
+		this.text = text;
+	}
+	
+	public WebElement getElement() {
+		return element;
+	}
+	
+	public boolean isDisplayed() {
+		return displayed;
+	}
+	
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	public boolean isChecked() {
+		return checked;
+	}
+	
+	public String getText() {
+		return text;
+	}
+}
@@ -3,21 +3,13 @@ package com.github.amercier.selenium.selenese;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 
 import com.github.amercier.selenium.exceptions.InvalidSeleneseCommandException;
 
 public class SeleneseCommand {
 	
-	/**
-	 * Variable pattern: ${variable}
-	 */
-	//public static final Pattern PATTERN_VARIABLE = Pattern.compile("\\$\\{([^\\}]+)\\}");
-	
 	protected Action action;
 	protected List<String> arguments;
-	protected Map<String, String> variables;
 	
 	public SeleneseCommand(Action action, String[] arguments) throws InvalidSeleneseCommandException {
 		this.setAction(action);
@@ -30,8 +22,6 @@ public class SeleneseCommand {
 			this.arguments.add(i >= arguments.length ? "" : arguments[i]);
 		}
 		
-		this.variables = null;
-		
 		if(arguments.length > action.getArgumentsCount()) {
 			throw new InvalidSeleneseCommandException(this, "expecting " + action.getArgumentsCount() + " arguments, " + arguments.length + " given");
 		}
@@ -46,45 +36,28 @@ public class SeleneseCommand {
 		return this;
 	}
 	
-	protected String[] getRawArguments() {
+	/**
+	 * Get the arguments, variables not substituted
+	 */
+	public String[] getRawArguments() {
 		return arguments.toArray(new String[0]);
 	}
 	
-	protected String getRawArgument(int index) {
+	public String getRawArgument(int index) {
 		return arguments.get(index);
 	}
 	
-	public String getArgument(int index) throws IllegalAccessException {
-		if(variables == null) {
-			throw new IllegalAccessException("Can not parse arguments while variables are not set.");
-		}
-		String argument = getRawArgument(index);
-		
-		for(Entry<String,String> variable : variables.entrySet()) {
-			argument = argument.replace("${" + variable.getKey() + "}", variable.getValue());
-		}
-		
-		return argument;
-	}
-	
-	public String[] getArguments() throws IllegalAccessException {
-		String[] arguments = new String[this.arguments.size()];
-		for(int i = 0 ; i < arguments.length ; i++) {
-			arguments[i] = getArgument(i);
-		}
-		return arguments;
-	}
-	
-	public void setVariables(Map<String,String> variables) {
-		this.variables = variables;
+	/**
+	 * Compile the command (see {@link CompiledCommand})
+	 * @return Returns the compiled command
+	 * @throws InvalidSeleneseCommandException if an argument is invalid
+	 */
+	public CompiledCommand compile() throws InvalidSeleneseCommandException {
+		return new CompiledCommand(this);
 	}
 	
 	@Override
 	public String toString() {
 		return getAction() + "(" + Arrays.toString(getRawArguments()).replaceAll("(^\\[|\\]$)", "") + ")";
 	}
-	
-	public String toCompiledString() throws IllegalAccessException {
-		return getAction() + "(" + Arrays.toString(getArguments()).replaceAll("(^\\[|\\]$)", "") + ")";
-	}
 }
@@ -1,7 +1,12 @@
 package com.github.amercier.selenium.selenese;
 
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+
+import com.github.amercier.selenium.exceptions.InvalidSeleneseCommandException;
+import com.github.amercier.selenium.exceptions.TestCaseLoadingException;
 
 
 /**
@@ -12,8 +17,22 @@ public class SeleneseTestCase {
 
 	protected String name;
 	protected List<SeleneseCommand> commands;
-	protected Throwable error;
-	protected Throwable failure;
+	protected CompiledCommand[] plan;
+	
+	/**
+	 * Test case whose commands are shared by this copy (see
+	 * {@link #cloneWithoutState()}), null for an original test case
+	 */
+	protected SeleneseTestCase source;
+	
+	/**
+	 * Loads the commands on demand, null if they are added with
+	 * {@link #addCommand(SeleneseCommand)}
+	 */
+	protected TestCaseLoader loader;
+	
+	protected volatile Throwable error;
+	protected volatile Throwable failure;
 	
 	public SeleneseTestCase(String name) {
 		this.setName(name);
@@ -32,19 +51,180 @@ public class SeleneseTestCase {
 	}
 	
 	public SeleneseTestCase addCommand(SeleneseCommand command) {
-		this.commands.add(command);
+		SeleneseTestCase source = getSource();
+		synchronized(source) {
+			source.getCommandList().add(command);
+			source.plan = null;
+		}
 		return this;
 	}
 	
+	/**
+	 * Get the commands, loading them if needed (see {@link #load()})
+	 * @throws IllegalStateException if the commands can't be loaded
+	 */
 	public SeleneseCommand[] getCommands() {
-		return commands.toArray(new SeleneseCommand[0]);
+		return getCommandList().toArray(new SeleneseCommand[0]);
+	}
+	
+	protected SeleneseTestCase getSource() {
+		return source == null ? this : source;
+	}
+	
+	/**
+	 * Load the commands on demand with a loader, rather than adding them
+	 * @param loader The loader
+	 * @return Returns this object to maintain chainability
+	 */
+	synchronized public SeleneseTestCase setLoader(TestCaseLoader loader) {
+		this.loader = loader;
+		this.commands = null;
+		this.plan = null;
+		return this;
+	}
+	
+	/**
+	 * Load the commands, unless already done. The loading is waited for
+	 * without holding the lock of the test case, so that a prefetch or a
+	 * release doesn't wait for it.
+	 * @throws TestCaseLoadingException if the commands can't be loaded
+	 */
+	public void load() throws TestCaseLoadingException {
+		SeleneseTestCase source = getSource();
+		TestCaseLoader loader;
+		synchronized(source) {
+			if(source.commands != null) {
+				return;
+			}
+			loader = source.loader;
+		}
+		SeleneseTestCase loaded = loader.load();
+		synchronized(source) {
+			if(source.commands == null) {
+				source.commands = loaded.commands;
+				source.plan = loaded.plan;
+			}
+		}
+	}
+	
+	/**
+	 * Get the size of the test case, to estimate its duration without
+	 * loading it
+	 * @return Returns the size of its source if loaded on demand (see
+	 *         {@link TestCaseLoader#getSize()}), its number of commands
+	 *         otherwise
+	 */
+	public long getSize() {
+		SeleneseTestCase source = getSource();
+		synchronized(source) {
+			return source.loader == null ? source.commands.size() : source.loader.getSize();
+		}
+	}
+	
+	/**
+	 * Start loading the commands in the background, unless already loaded
+	 */
+	public void prefetch() {
+		SeleneseTestCase source = getSource();
+		synchronized(source) {
+			if(source.commands == null) {
+				source.loader.prefetch();
+			}
+		}
+	}
+	
+	/**
+	 * Forget the loaded commands, so that their memory can be reclaimed. They
+	 * are loaded again if needed. Has no effect on test cases without loader.
+	 */
+	public void release() {
+		SeleneseTestCase source = getSource();
+		synchronized(source) {
+			if(source.loader != null) {
+				source.commands = null;
+				source.plan = null;
+			}
+		}
+	}
+	
+	protected List<SeleneseCommand> getCommandList() {
+		SeleneseTestCase source = getSource();
+		while(true) {
+			try {
+				load();
+			}
+			catch(TestCaseLoadingException e) {
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+			synchronized(source) {
+				if(source.commands != null) { // otherwise released in the meantime
+					return source.commands;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Compile the commands, unless already done
+	 * @return Returns the compiled commands
+	 * @throws InvalidSeleneseCommandException if a command argument is invalid
+	 */
+	public CompiledCommand[] compile() throws InvalidSeleneseCommandException {
+		SeleneseTestCase source = getSource();
+		List<SeleneseCommand> commands = source.getCommandList();
+		synchronized(source) {
+			if(source.plan == null) {
+				CompiledCommand[] plan = new CompiledCommand[commands.size()];
+				int i = 0;
+				for(SeleneseCommand command : commands) {
+					plan[i++] = command.compile();
+				}
+				if(source.commands != commands) { // released in the meantime
+					return plan;
+				}
+				source.plan = plan;
+			}
+			return source.plan;
+		}
+	}
+	
+	/**
+	 * Get the compiled commands, compiling them if needed
+	 * @return Returns the compiled commands
+	 * @throws InvalidSeleneseCommandException if a command argument is invalid
+	 */
+	public CompiledCommand[] getPlan() throws InvalidSeleneseCommandException {
+		return compile();
+	}
+	
+	/**
+	 * Find the variables used before being stored by a storeEval command
+	 * @return Returns a description of each use of an undefined variable
+	 * @throws InvalidSeleneseCommandException if a command argument is invalid
+	 */
+	public List<String> getUndefinedVariables() throws InvalidSeleneseCommandException {
+		List<String> result = new LinkedList<String>();
+		Set<String> defined = new HashSet<String>();
+		int index = 0;
+		for(CompiledCommand command : compile()) {
+			index++;
+			for(String variable : command.getVariables()) {
+				if(!defined.contains(variable)) {
+					result.add("command " + index + " " + command + " uses undefined variable ${" + variable + "}");
+				}
+			}
+			if(command.getAction() == Action.storeEval) {
+				defined.add(command.getCommand().getRawArgument(1));
+			}
+		}
+		return result;
 	}
 	
 	public boolean hasErrored() {
 		return error != null;
 	}
 
-	public void setError(Throwable error) {
+	synchronized public void setError(Throwable error) {
 		if(this.error == null) {
 			this.error = error;
 		}
@@ -58,7 +238,7 @@ public class SeleneseTestCase {
 		return failure != null;
 	}
 	
-	public void setFailure(Throwable failure) {
+	synchronized public void setFailure(Throwable failure) {
 		if(this.failure == null) {
 			this.failure = failure;
 		}
@@ -84,11 +264,15 @@ public class SeleneseTestCase {
 		}
 	}
 	
+	/**
+	 * Create a copy of this test case without its error or failure. Commands
+	 * and compiled plan are shared with the copy (including the ones loaded
+	 * or released afterwards), so they should not be modified anymore.
+	 */
 	public SeleneseTestCase cloneWithoutState() {
 		SeleneseTestCase clone = new SeleneseTestCase(getName());
-		for(SeleneseCommand command : getCommands()) {
-			clone.addCommand(command);
-		}
+		clone.commands = null;
+		clone.source = getSource();
 		return clone;
 	}
 }
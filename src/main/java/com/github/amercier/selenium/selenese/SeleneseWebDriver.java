@@ -2,18 +2,24 @@ package com.github.amercier.selenium.selenese;
 
 import java.net.URL;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import org.openqa.selenium.By;
+import org.openqa.selenium.NotFoundException;
 import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.TimeoutException;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.interactions.Actions;
 import org.openqa.selenium.remote.DesiredCapabilities;
 import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.Response;
 import org.openqa.selenium.support.ui.ExpectedCondition;
 import org.openqa.selenium.support.ui.Select;
 import org.openqa.selenium.support.ui.WebDriverWait;
@@ -27,9 +33,244 @@ import com.github.amercier.selenium.selenese.assertions.AssertionFailedException
 import com.github.amercier.selenium.selenese.log.Log;
 import com.github.amercier.selenium.selenese.log.Loggable;
 import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 
 public class SeleneseWebDriver extends RemoteWebDriver implements Loggable {
 	
+	/**
+	 * Delay between two consecutive page readiness checks, in milliseconds
+	 */
+	public static final long SYNCHRONIZATION_POLL_INTERVAL = 50;
+	
+	/**
+	 * Maximum delay between two consecutive checks of a polled waitFor
+	 * condition, in milliseconds
+	 */
+	public static final long MAX_WAIT_POLL_INTERVAL = 5000;
+	
+	/**
+	 * Number of failed asynchronous waits (typically interrupted by a page
+	 * load) before falling back to polling
+	 */
+	public static final int MAX_ASYNC_WAIT_ERRORS = 3;
+	
+	/**
+	 * Script fragment installing the JavaScript errors collector on the
+	 * current page, unless already done. Errors are buffered in the page until
+	 * drained by {@link #ERRORS_SCRIPT} or {@link #READY_SCRIPT}.
+	 */
+	protected static final String ERRORS_COLLECTOR =
+		  "var w = window;"
+		+ "if(!w.__seleneseErrors) {"
+		+   "w.__seleneseErrors = [];"
+		+   "var onerror = w.onerror;"
+		+   "w.onerror = function(message, url, line) {"
+		+     "w.__seleneseErrors.push(message + ' in ' + url + ' at line ' + line);"
+		+     "return onerror ? onerror.apply(this, arguments) : false;"
+		+   "};"
+		+ "}";
+	
+	/**
+	 * Script fragment draining the buffered JavaScript errors into an errors variable
+	 */
+	protected static final String ERRORS_DRAIN = "var errors = w.__seleneseErrors; w.__seleneseErrors = [];";
+	
+	/**
+	 * Script installing the JavaScript errors collector and draining the
+	 * buffered errors, in a single call
+	 */
+	protected static final String ERRORS_SCRIPT = ERRORS_COLLECTOR + ERRORS_DRAIN + "return errors;";
+	
+	/**
+	 * Script fragment defining locate(type, value), which finds the elements
+	 * matching a Selenese locator (see {@link ElementLocator}), and
+	 * displayed(element), which approximates the WebDriver visibility: the
+	 * element and its ancestors are not hidden by their style, and the
+	 * element has a size (options are considered through their select).
+	 */
+	protected static final String LOCATE_FUNCTIONS =
+		  "var locate = function(type, value) {"
+		+   "var elements = [], i;"
+		+   "if(type == 'CSS') {"
+		+     "elements = document.querySelectorAll(value);"
+		+   "}"
+		+   "else if(type == 'XPATH') {"
+		+     "var snapshot = document.evaluate(value, document, null, 7, null);"
+		+     "for(i = 0 ; i < snapshot.snapshotLength ; i++) elements.push(snapshot.snapshotItem(i));"
+		+   "}"
+		+   "else if(type == 'NAME') {"
+		+     "elements = document.getElementsByName(value);"
+		+   "}"
+		+   "else {"
+		+     "var all = document.getElementsByTagName(type == 'LINK' ? 'a' : '*');"
+		+     "for(i = 0 ; i < all.length ; i++) {"
+		+       "if(type == 'LINK' ? (all[i].textContent || '').replace(/^\\s+|\\s+$/g, '') == value : all[i].id == value) elements.push(all[i]);"
+		+     "}"
+		+   "}"
+		+   "return elements;"
+		+ "};"
+		+ "var style = function(e) { return window.getComputedStyle ? window.getComputedStyle(e, null) : e.currentStyle; };"
+		+ "var displayed = function(e) {"
+		+   "while(e && (e.tagName == 'OPTION' || e.tagName == 'OPTGROUP')) e = e.parentNode;"
+		+   "if(!e || (e.tagName == 'INPUT' && e.type == 'hidden') || style(e).visibility == 'hidden') return false;"
+		+   "if(!(e.offsetWidth > 0 || e.offsetHeight > 0 || (e.getClientRects && e.getClientRects().length > 0))) return false;"
+		+   "for(var p = e ; p && p.nodeType == 1 ; p = p.parentNode) if(style(p).display == 'none') return false;"
+		+   "return true;"
+		+ "};";
+	
+	/**
+	 * Script finding the elements matching a Selenese locator (arguments:
+	 * locator type and value), and returning each of them with its state:
+	 * [element, displayed, enabled, checked, text]
+	 */
+	protected static final String RESOLVE_SCRIPT =
+		  LOCATE_FUNCTIONS
+		+ "var elements = locate(arguments[0], arguments[1]), result = [];"
+		+ "for(var i = 0 ; i < elements.length ; i++) {"
+		+   "var e = elements[i], text = e.innerText !== undefined ? e.innerText : e.textContent;"
+		+   "result.push([e, displayed(e), !e.disabled, !!(e.checked || e.selected), (text || '').replace(/^\\s+|\\s+$/g, '')]);"
+		+ "}"
+		+ "return result;";
+	
+	/**
+	 * Script selecting an option in the displayed select elements matching a
+	 * Selenese locator (arguments: select locator type and value, option
+	 * locator type and value, see {@link OptionLocator}). As with
+	 * Select.selectByValue, the options having the value of the located one
+	 * are selected (only the first one if the select isn't multiple), and
+	 * input and change events are fired if the selection changed. Returns
+	 * the number of select elements found, and the number of options found
+	 * in the first select where it isn't exactly one (1 otherwise).
+	 */
+	protected static final String SELECT_SCRIPT =
+		  LOCATE_FUNCTIONS
+		+ "var selects = locate(arguments[0], arguments[1]), type = arguments[2], value = arguments[3], result = { selects: selects.length, options: 1 }, select, i, j;"
+		+ "var pattern = type == 'REGEXP' ? new RegExp(value) : null;"
+		+ "var text = function(e) { return ((e.innerText !== undefined ? e.innerText : e.textContent) || '').replace(/^\\s+|\\s+$/g, ''); };"
+		+ "var matches = function(o) {"
+		+   "var n, k = 0;"
+		+   "switch(type) {"
+		+     "case 'ID'     : return o.id == value;"
+		+     "case 'VALUE'  : return o.getAttribute('value') == value;"
+		+     "case 'LABEL'  : for(n = o.firstChild ; n ; n = n.nextSibling) if(n.nodeType == 3 && n.nodeValue == value) return true; return false;"
+		+     "case 'INDEX'  : for(n = o ; n ; n = n.previousSibling) if(n.nodeType == 1 && n.tagName.toUpperCase() == 'OPTION') k++; return k == parseInt(value, 10);"
+		+     "case 'REGEXP' : return o.parentNode == select && pattern.test(text(o));"
+		+   "}"
+		+   "throw new Error('Unknown option locator ' + type);"
+		+ "};"
+		+ "var fire = function(e, name) { var event = document.createEvent('HTMLEvents'); event.initEvent(name, true, false); e.dispatchEvent(event); };"
+		+ "for(i = 0 ; i < selects.length ; i++) {"
+		+   "select = selects[i];"
+		+   "if(!displayed(select)) continue;"
+		+   "var options = select.getElementsByTagName('option'), found = [], changed = false;"
+		+   "for(j = 0 ; j < options.length ; j++) if(matches(options[j])) found.push(options[j]);"
+		+   "if(found.length != 1) { result.options = found.length; return result; }"
+		+   "for(j = 0 ; j < select.options.length ; j++) {"
+		+     "if(select.options[j].value == found[0].value) {"
+		+       "if(!select.options[j].selected) { select.options[j].selected = true; changed = true; }"
+		+       "if(!select.multiple) break;"
+		+     "}"
+		+   "}"
+		+   "if(changed) { fire(select, 'input'); fire(select, 'change'); }"
+		+ "}"
+		+ "return result;";
+	
+	/**
+	 * Asynchronous script waiting in the browser for a condition (arguments:
+	 * condition, first and second condition arguments, previous result,
+	 * timeout in milliseconds). The condition is checked immediately, then
+	 * on each DOM mutation and location change, and every 250 ms for the
+	 * changes that don't touch the DOM (every 50 ms in browsers without
+	 * MutationObserver). The script
+	 * resolves with true (or the new location for the location condition)
+	 * once the condition is met, with null on timeout, and with an error
+	 * object if the condition can't be evaluated in the browser.
+	 * 
+	 * Conditions:
+	 *  - present / notPresent / visible: locator type and value
+	 *  - eval / notEval: script and expected value, the result being compared
+	 *    as the remote condition converts it to a string (results that can't
+	 *    be converted the same way in the browser, such as undefined, null,
+	 *    arrays or objects, are reported as an error, hence polled remotely)
+	 *  - location: none, met when the location differs from the previous result
+	 */
+	protected static final String WAIT_SCRIPT =
+		  LOCATE_FUNCTIONS
+		+ "var condition = arguments[0], first = arguments[1], second = arguments[2], previous = arguments[3], callback = arguments[arguments.length - 1];"
+		+ "var done = false, observer = null, timer = null, interval = null;"
+		+ "var evaluate = function(script) {"
+		+   "var value = new Function('return (' + script + ')')();"
+		+   "if(typeof value == 'string' || typeof value == 'boolean') return String(value);"
+		+   "if(typeof value == 'number' && (value % 1 == 0 ? Math.abs(value) < 9007199254740992 : Math.abs(value) >= 0.001 && Math.abs(value) < 10000000)) return String(value);"
+		+   "throw new Error('Can not compare ' + (value === null ? 'null' : typeof value) + ' results in the browser');"
+		+ "};"
+		+ "var check = function() {"
+		+   "var elements, i;"
+		+   "switch(condition) {"
+		+     "case 'present'    : return locate(first, second).length > 0;"
+		+     "case 'notPresent' : return locate(first, second).length == 0;"
+		+     "case 'visible'    : elements = locate(first, second); for(i = 0 ; i < elements.length ; i++) if(displayed(elements[i])) return true; return false;"
+		+     "case 'eval'       : return evaluate(first) == second;"
+		+     "case 'notEval'    : return evaluate(first) != second;"
+		+     "case 'location'   : return window.location.href != previous;"
+		+   "}"
+		+   "throw new Error('Unknown condition ' + condition);"
+		+ "};"
+		+ "var finish = function(result) {"
+		+   "if(done) return;"
+		+   "done = true;"
+		+   "clearTimeout(timer);"
+		+   "clearInterval(interval);"
+		+   "if(observer) observer.disconnect();"
+		+   "if(window.removeEventListener) { window.removeEventListener('hashchange', poll, false); window.removeEventListener('popstate', poll, false); }"
+		+   "callback(result);"
+		+ "};"
+		+ "var poll = function() {"
+		+   "if(done) return;"
+		+   "try { if(check()) finish(condition == 'location' ? window.location.href : true); }"
+		+   "catch(e) { finish({ error: String(e) }); }"
+		+ "};"
+		+ "poll();"
+		+ "if(!done) {"
+		+   "timer = setTimeout(function() { finish(null); }, arguments[4]);"
+		+   "if(window.MutationObserver) { observer = new MutationObserver(poll); observer.observe(document.documentElement || document, { childList: true, subtree: true, attributes: true, characterData: true }); }"
+		+   "interval = setInterval(poll, observer ? 250 : 50);"
+		+   "if(window.addEventListener) { window.addEventListener('hashchange', poll, false); window.addEventListener('popstate', poll, false); }"
+		+ "}";
+	
+	/**
+	 * Script telling whether the page is ready: document loaded, no pending
+	 * XMLHttpRequest or fetch, no jQuery request or animation running.
+	 * Pending requests are counted by wrapping XMLHttpRequest and fetch on
+	 * the first call on each page, so requests started before that are not
+	 * waited for. The JavaScript errors are drained at the same time.
+	 */
+	protected static final String READY_SCRIPT =
+		  ERRORS_COLLECTOR
+		+ "if(!w.__seleneseSync) {"
+		+   "var sync = w.__seleneseSync = { pending: 0 };"
+		+   "if(w.XMLHttpRequest && w.XMLHttpRequest.prototype.addEventListener) {"
+		+     "var send = w.XMLHttpRequest.prototype.send;"
+		+     "w.XMLHttpRequest.prototype.send = function() {"
+		+       "var done = false, end = function() { if(!done) { done = true; sync.pending--; } };"
+		+       "sync.pending++;"
+		+       "this.addEventListener('loadend', end);"
+		+       "try { return send.apply(this, arguments); } catch(e) { end(); throw e; }"
+		+     "};"
+		+   "}"
+		+   "if(w.fetch) {"
+		+     "var fetch = w.fetch;"
+		+     "w.fetch = function() {"
+		+       "sync.pending++;"
+		+       "return fetch.apply(this, arguments).then(function(r) { sync.pending--; return r; }, function(e) { sync.pending--; throw e; });"
+		+     "};"
+		+   "}"
+		+ "}"
+		+ ERRORS_DRAIN
+		+ "return { errors: errors, ready: document.readyState == 'complete' && w.__seleneseSync.pending <= 0"
+		+   " && !(w.jQuery && (w.jQuery.active > 0 || (w.jQuery.expr && w.jQuery.expr.filters && w.jQuery.expr.filters.animated && w.jQuery(':animated').length > 0))) };";
+	
+
 	/**
 	 * Storage to be used with storeEval and loadEval
 	 */
@@ -41,6 +282,143 @@ public class SeleneseWebDriver extends RemoteWebDriver implements Loggable {
 	
 	protected long waitTimeout;
 	
+	/**
+	 * Time after which the running test case is over budget, in milliseconds
+	 * since the epoch (0 means no deadline)
+	 */
+	protected long deadline;
+	
+	/**
+	 * Whether to wait for the page to be ready after each interaction
+	 */
+	protected boolean autoSynchronize;
+	
+	/**
+	 * Time spent waiting for the page to be ready during the last command, in milliseconds
+	 */
+	protected long lastSynchronizationTime;
+	
+	/**
+	 * Whether to find the elements and their state in a single script call
+	 * (see {@link #RESOLVE_SCRIPT}) for the commands acting on elements
+	 * depending on their state, and for the element assertions
+	 */
+	protected boolean scriptedResolution;
+	
+	/**
+	 * Whether to select options with a single script call (see
+	 * {@link #SELECT_SCRIPT}) rather than with WebDriver's Select
+	 */
+	protected boolean scriptedSelect;
+	
+	/**
+	 * Whether to cache the elements found on the current document
+	 */
+	protected boolean elementCacheEnabled;
+	
+	/**
+	 * Elements found on the current document, by locator
+	 */
+	protected Map<By,List<WebElement>> elementCache;
+	
+	/**
+	 * URL of the document whose elements are cached
+	 */
+	protected String elementCacheUrl;
+	
+	/**
+	 * Whether the element cache has been hit during the current command
+	 */
+	protected boolean elementCacheUsed;
+	
+	/**
+	 * Whether a WebDriver command with side effects (anything but a lookup
+	 * or a read) has succeeded during the current action, in which case the
+	 * action must not be run again
+	 */
+	protected boolean actionStarted;
+	
+	protected int elementCacheHits;
+	protected int elementCacheMisses;
+	
+	/**
+	 * How the pause command waits
+	 */
+	protected PauseMode pauseMode;
+	
+	/**
+	 * How the waitFor commands wait
+	 */
+	protected WaitMode waitMode;
+	
+	/**
+	 * Initial delay between two checks of a polled waitFor condition, in milliseconds
+	 */
+	protected long waitPollInterval;
+	
+	/**
+	 * Factor applied to the polling delay after each check (1 keeps it constant)
+	 */
+	protected double waitPollBackoff;
+	
+	/**
+	 * Asynchronous script timeout set on the session, in milliseconds
+	 */
+	protected long scriptTimeout;
+	
+	/**
+	 * Time spent pausing during the last command, in milliseconds
+	 */
+	protected long lastPauseTime;
+	
+	/**
+	 * Time spent waiting during the last command (waitFor commands and page
+	 * synchronization), in nanoseconds
+	 */
+	protected long lastWaitTime;
+	
+	/**
+	 * Time spent in WebDriver calls during the last command, waits and
+	 * pauses excepted, in nanoseconds
+	 */
+	protected long lastRoundTripTime;
+	
+	/**
+	 * Whether the WebDriver calls are currently counted in lastRoundTripTime
+	 */
+	protected boolean countingRoundTrips;
+	
+	/**
+	 * The command being executed, if any
+	 */
+	protected CompiledCommand executingCommand;
+	
+	/**
+	 * Notified of each WebDriver call, null if none
+	 */
+	protected WireCallListener wireCallListener;
+	
+	/**
+	 * Name of the grid node running the session, if known
+	 */
+	protected String nodeName;
+	
+	/**
+	 * Number of commands between two JavaScript errors checks (0 disables the
+	 * checks). Errors are also checked before and after each page opening.
+	 */
+	protected int javascriptErrorsCheckInterval;
+	
+	/**
+	 * Number of commands run since the last JavaScript errors check
+	 */
+	protected int commandsSinceErrorsCheck;
+	
+	/**
+	 * JavaScript errors collected since the session has been created or reset
+	 */
+	protected List<String> javascriptErrors;
+	
 	public SeleneseWebDriver() {
 		super();
 	}
@@ -49,6 +427,18 @@ public class SeleneseWebDriver extends RemoteWebDriver implements Loggable {
 		super(remoteAddress, desiredCapabilities);
 		setBaseURL(baseURL);
 		this.storage = new HashMap<String,String>();
+		this.javascriptErrors = new LinkedList<String>();
+		this.javascriptErrorsCheckInterval = 1;
+		this.commandsSinceErrorsCheck = 0;
+		this.pauseMode = PauseMode.LOCAL;
+		this.elementCache = new HashMap<By,List<WebElement>>();
+		this.elementCacheEnabled = false;
+		this.scriptedResolution = false;
+		this.scriptedSelect = true;
+		this.scriptTimeout = 0;
+		this.waitMode = WaitMode.ASYNC_SCRIPT;
+		this.waitPollInterval = 500;
+		this.waitPollBackoff = 1;
 		setLog(log);
 		setWaitTimeout(waitTimeout);
 	}
@@ -77,18 +467,127 @@ public class SeleneseWebDriver extends RemoteWebDriver implements Loggable {
 		this.waitTimeout = waitTimeout;
 	}
 	
-	protected String getAbsoluteURL(String relativeURL) {
-		return getBaseURL().toString().replaceAll("/$","") + "/" + relativeURL.replaceAll("^/","");
+	public long getDeadline() {
+		return deadline;
+	}
+	
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+	
+	public boolean isAutoSynchronize() {
+		return autoSynchronize;
+	}
+	
+	public void setAutoSynchronize(boolean autoSynchronize) {
+		this.autoSynchronize = autoSynchronize;
+	}
+	
+	public long getLastSynchronizationTime() {
+		return lastSynchronizationTime;
+	}
+	
+	public int getJavascriptErrorsCheckInterval() {
+		return javascriptErrorsCheckInterval;
+	}
+	
+	public void setJavascriptErrorsCheckInterval(int javascriptErrorsCheckInterval) {
+		this.javascriptErrorsCheckInterval = javascriptErrorsCheckInterval;
+	}
+	
+	/**
+	 * Get the JavaScript errors collected since the session has been created or reset
+	 */
+	public List<String> getJavascriptErrors() {
+		return javascriptErrors;
+	}
+	
+	/**
+	 * Install the JavaScript errors collector if needed, and collect the
+	 * buffered errors, in a single call
+	 */
+	public void checkJavascriptErrors() {
+		collectJavascriptErrors(executeScript(ERRORS_SCRIPT, new Object[0]));
 	}
 	
-	protected Pattern parsePattern(String selenesePattern) throws InvalidSeleneseCommandArgumentException {
-		Pattern result;
-		for(StringMatchPattern stringMatcher : StringMatchPattern.values()) {
-			if((result = stringMatcher.find(selenesePattern)) != null) {
-				return result;
+	protected void collectJavascriptErrors(Object errors) {
+		commandsSinceErrorsCheck = 0;
+		if(errors instanceof List<?>) {
+			for(Object error : (List<?>)errors) {
+				getLog().warn("(JavaScript error) " + error);
+				javascriptErrors.add("" + error);
+			}
+		}
+	}
+	
+	/**
+	 * Wait for the page to be ready (see {@link #READY_SCRIPT}). Gives up
+	 * with a warning after the wait timeout, letting the next command fail
+	 * if the page really isn't usable.
+	 * @return Returns the time spent waiting, in milliseconds
+	 */
+	protected long synchronize() {
+		long start = System.currentTimeMillis(), end = start + getRemainingWaitTimeout();
+		ExpectedCondition<Boolean> ready = new ExpectedCondition<Boolean>() {
+			public Boolean apply(WebDriver d) {
+				Object result = executeScript(READY_SCRIPT, new Object[0]);
+				if(!(result instanceof Map<?,?>)) {
+					return true;
+				}
+				if(getJavascriptErrorsCheckInterval() > 0) {
+					collectJavascriptErrors(((Map<?,?>)result).get("errors"));
+				}
+				return Boolean.TRUE.equals(((Map<?,?>)result).get("ready"));
+			}
+		};
+		while(!isMet(ready)) {
+			long remaining = end - System.currentTimeMillis();
+			if(remaining <= 0) {
+				getLog().warn("Warning: page still not ready after " + (System.currentTimeMillis() - start) + " ms");
+				break;
+			}
+			try {
+				Thread.sleep(Math.min(SYNCHRONIZATION_POLL_INTERVAL, remaining));
 			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new WebDriverException(e);
+			}
+		}
+		return System.currentTimeMillis() - start;
+	}
+	
+	/**
+	 * Get the timeout of waitFor commands, shrunk to the time remaining
+	 * before the deadline, if any
+	 * @return Returns the timeout in milliseconds
+	 */
+	public long getRemainingWaitTimeout() {
+		if(getDeadline() == 0) {
+			return getWaitTimeout();
 		}
-		throw new InvalidSeleneseCommandArgumentException(selenesePattern);
+		return Math.max(0, Math.min(getWaitTimeout(), getDeadline() - System.currentTimeMillis()));
+	}
+	
+	/**
+	 * Reset the browser state, so that the session can be reused by another
+	 * test case: stored variables, local and session storage, cookies of the
+	 * current domain, and current page.
+	 */
+	public void reset() {
+		storage.clear();
+		javascriptErrors.clear();
+		commandsSinceErrorsCheck = 0;
+		clearElementCache();
+		elementCacheHits = 0;
+		elementCacheMisses = 0;
+		executeScript("try { window.localStorage.clear(); window.sessionStorage.clear(); } catch(e) {}", new Object[0]);
+		manage().deleteAllCookies();
+		get("about:blank");
+	}
+	
+	protected String getAbsoluteURL(String relativeURL) {
+		return getBaseURL().toString().replaceAll("/$","") + "/" + relativeURL.replaceAll("^/","");
 	}
 	
 	protected long getTime() {
@@ -107,7 +606,209 @@ public class SeleneseWebDriver extends RemoteWebDriver implements Loggable {
 		}
 	}
 	
-	protected void pause(final long milliseconds) {
+	public boolean isScriptedResolution() {
+		return scriptedResolution;
+	}
+	
+	public void setScriptedResolution(boolean scriptedResolution) {
+		this.scriptedResolution = scriptedResolution;
+	}
+	
+	public boolean isScriptedSelect() {
+		return scriptedSelect;
+	}
+	
+	public void setScriptedSelect(boolean scriptedSelect) {
+		this.scriptedSelect = scriptedSelect;
+	}
+	
+	public boolean isElementCacheEnabled() {
+		return elementCacheEnabled;
+	}
+	
+	public void setElementCacheEnabled(boolean elementCacheEnabled) {
+		this.elementCacheEnabled = elementCacheEnabled;
+		clearElementCache();
+	}
+	
+	public int getElementCacheHits() {
+		return elementCacheHits;
+	}
+	
+	public int getElementCacheMisses() {
+		return elementCacheMisses;
+	}
+	
+	/**
+	 * Forget the cached elements, typically because the document may have changed
+	 */
+	public void clearElementCache() {
+		elementCache.clear();
+		elementCacheUrl = null;
+	}
+	
+	/**
+	 * Find elements, using the element cache if enabled. Only the lookups on
+	 * the whole document are cached.
+	 * @param context The search context
+	 * @param by      The locator
+	 * @return Returns the elements found
+	 */
+	protected List<WebElement> lookupElements(SearchContext context, By by) {
+		if(!isElementCacheEnabled() || context != this) {
+			return by.findElements(context);
+		}
+		List<WebElement> elements = elementCache.get(by);
+		if(elements == null) {
+			elementCacheMisses++;
+			elements = by.findElements(context);
+			elementCache.put(by, elements);
+		}
+		else {
+			elementCacheHits++;
+			elementCacheUsed = true;
+		}
+		return elements;
+	}
+	
+	/**
+	 * Get the URL of the current page, and forget the cached elements if it
+	 * has changed
+	 */
+	@Override
+	public String getCurrentUrl() {
+		String url = super.getCurrentUrl();
+		observeUrl(url);
+		return url;
+	}
+	
+	/**
+	 * Forget the cached elements if the URL of the current page has changed
+	 * @param url The URL of the current page
+	 */
+	protected void observeUrl(String url) {
+		if(elementCacheUrl != null && !elementCacheUrl.equals(url)) {
+			clearElementCache();
+		}
+		elementCacheUrl = url;
+	}
+	
+	public PauseMode getPauseMode() {
+		return pauseMode;
+	}
+	
+	public void setPauseMode(PauseMode pauseMode) {
+		this.pauseMode = pauseMode;
+	}
+	
+	public long getLastPauseTime() {
+		return lastPauseTime;
+	}
+	
+	public long getLastWaitTime() {
+		return lastWaitTime;
+	}
+	
+	public long getLastRoundTripTime() {
+		return lastRoundTripTime;
+	}
+	
+	public String getNodeName() {
+		return nodeName;
+	}
+	
+	public void setNodeName(String nodeName) {
+		this.nodeName = nodeName;
+	}
+	
+	public WireCallListener getWireCallListener() {
+		return wireCallListener;
+	}
+	
+	/**
+	 * Set the listener notified of each WebDriver call
+	 * @param wireCallListener The listener, null for none
+	 */
+	public void setWireCallListener(WireCallListener wireCallListener) {
+		this.wireCallListener = wireCallListener;
+	}
+	
+	/**
+	 * Execute a WebDriver command, measuring its round trip
+	 */
+	@Override
+	protected Response execute(String driverCommand, Map<String,?> parameters) {
+		WireCallListener listener = wireCallListener;
+		if(!countingRoundTrips && listener == null) {
+			Response response = super.execute(driverCommand, parameters);
+			actionStarted |= !isReadOnly(driverCommand);
+			return response;
+		}
+		long start = System.nanoTime();
+		try {
+			Response response = super.execute(driverCommand, parameters);
+			actionStarted |= !isReadOnly(driverCommand);
+			return response;
+		}
+		finally {
+			long duration = System.nanoTime() - start;
+			if(countingRoundTrips) {
+				lastRoundTripTime += duration;
+			}
+			if(listener != null) {
+				listener.fireWireCall(this, executingCommand, driverCommand, duration);
+			}
+		}
+	}
+	
+	/**
+	 * Tell whether a WebDriver command has no side effects: element lookups
+	 * (findElement, findChildElements, ...) and reads (getElementText,
+	 * isElementDisplayed, ...), but not "get", which opens a page
+	 * @param driverCommand The WebDriver command name
+	 */
+	protected static boolean isReadOnly(String driverCommand) {
+		return driverCommand.startsWith("find") || driverCommand.startsWith("is") || (driverCommand.startsWith("get") && driverCommand.length() > 3);
+	}
+	
+	/**
+	 * Wait for a given delay, according to the pause mode
+	 * @param milliseconds The delay
+	 * @throws InterruptedException
+	 */
+	protected void pause(long milliseconds) throws InterruptedException {
+		long start = System.currentTimeMillis();
+		try {
+			switch(getPauseMode()) {
+				       case LOCAL        : Thread.sleep(milliseconds);
+				break; case ASYNC_SCRIPT : asyncScriptPause(milliseconds);
+				break; case POLLING      : pollingPause(milliseconds);
+			}
+		}
+		finally {
+			lastPauseTime = System.currentTimeMillis() - start;
+		}
+	}
+	
+	/**
+	 * Make sure asynchronous scripts may run for a given delay
+	 * @param milliseconds The delay
+	 */
+	protected void ensureScriptTimeout(long milliseconds) {
+		
+		// The script timeout is only raised when needed, to save a round trip
+		if(scriptTimeout < milliseconds + 1000) {
+			scriptTimeout = milliseconds + 1000;
+			manage().timeouts().setScriptTimeout(scriptTimeout, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	protected void asyncScriptPause(long milliseconds) {
+		ensureScriptTimeout(milliseconds);
+		executeAsyncScript("setTimeout(arguments[arguments.length - 1], arguments[0])", new Object[] { milliseconds });
+	}
+	
+	protected void pollingPause(final long milliseconds) {
 		final long startTime = getTime();
 		new WebDriverWait(this, (long)(milliseconds + 1.0)).until(new Predicate<WebDriver>() {
 			public boolean apply(WebDriver input) {
@@ -118,8 +819,184 @@ public class SeleneseWebDriver extends RemoteWebDriver implements Loggable {
 		});
 	}
 	
+	public WaitMode getWaitMode() {
+		return waitMode;
+	}
+	
+	public void setWaitMode(WaitMode waitMode) {
+		this.waitMode = waitMode;
+	}
+	
+	public long getWaitPollInterval() {
+		return waitPollInterval;
+	}
+	
+	public void setWaitPollInterval(long waitPollInterval) {
+		this.waitPollInterval = waitPollInterval;
+	}
+	
+	public double getWaitPollBackoff() {
+		return waitPollBackoff;
+	}
+	
+	public void setWaitPollBackoff(double waitPollBackoff) {
+		this.waitPollBackoff = waitPollBackoff;
+	}
+	
+	/**
+	 * Wait for a condition, in the browser if the wait mode allows it (see
+	 * {@link #WAIT_SCRIPT}), or by polling it remotely
+	 * @param condition The browser condition
+	 * @param first     The first browser condition argument
+	 * @param second    The second browser condition argument
+	 * @param accept    Tells whether a browser result meets the condition
+	 * @param remote    The remote condition
+	 * @throws TimeoutException if the condition isn't met within the wait timeout
+	 */
+	protected void waitFor(String condition, String first, String second, Predicate<Object> accept, ExpectedCondition<Boolean> remote) throws TimeoutException {
+		long start = System.currentTimeMillis(), end = start + getRemainingWaitTimeout();
+		if(getWaitMode() == WaitMode.ASYNC_SCRIPT) {
+			Object previous = null;
+			int errors = 0;
+			while(errors < MAX_ASYNC_WAIT_ERRORS) {
+				try {
+					long timeout = Math.max(0, end - System.currentTimeMillis());
+					ensureScriptTimeout(timeout);
+					Object result = executeAsyncScript(WAIT_SCRIPT, new Object[] { condition, first, second, previous, timeout });
+					if(result == null) {
+						
+						// The browser condition may miss what the remote one sees: check the latter once before giving up
+						if(isMet(remote)) {
+							return;
+						}
+						throw new TimeoutException("Timed out after " + (System.currentTimeMillis() - start) + " ms waiting for " + remote);
+					}
+					if(result instanceof Map<?,?>) {
+						getLog().debug("Can't wait for " + condition + " in the browser (" + ((Map<?,?>)result).get("error") + "), polling instead");
+						break;
+					}
+					if(accept.apply(result)) {
+						return;
+					}
+					
+					// Only a new location may be accepted on the next attempt
+					if(!(result instanceof String)) {
+						break;
+					}
+					previous = result;
+				}
+				catch(TimeoutException e) {
+					throw e;
+				}
+				catch(WebDriverException e) {
+					errors++;
+					getLog().debug("Waiting for " + condition + " in the browser failed (" + e.getMessage() + ")");
+				}
+			}
+		}
+		pollingWaitFor(remote, end);
+	}
+	
+	/**
+	 * Wait for elements, in the browser if the locator is a Selenese one
+	 * @param condition The browser condition (present, notPresent or visible)
+	 * @param by        The locator
+	 * @param confirm   Whether to confirm the browser result with the remote
+	 *                  condition, as the browser one is approximated
+	 * @param remote    The remote condition
+	 * @throws TimeoutException if the condition isn't met within the wait timeout
+	 */
+	protected void waitForElements(String condition, By by, boolean confirm, ExpectedCondition<Boolean> remote) throws TimeoutException {
+		if(by instanceof ElementLocator.Locator) {
+			ElementLocator.Locator locator = (ElementLocator.Locator)by;
+			waitFor(condition, locator.getType().name(), locator.getValue(), confirm ? confirmedBy(remote) : Predicates.<Object>alwaysTrue(), remote);
+		}
+		else {
+			pollingWaitFor(remote, System.currentTimeMillis() + getRemainingWaitTimeout());
+		}
+	}
+	
+	/**
+	 * Wait for the location to match a pattern (or not)
+	 * @param pattern  The pattern
+	 * @param matching Whether the location has to match
+	 * @throws TimeoutException if the condition isn't met within the wait timeout
+	 */
+	protected void waitForLocation(final Pattern pattern, final boolean matching) throws TimeoutException {
+		waitFor("location", null, null, new Predicate<Object>() {
+			public boolean apply(Object location) {
+				observeUrl("" + location);
+				return pattern.matcher("" + location).find() == matching;
+			}
+		}, new ExpectedCondition<Boolean>() {
+			public Boolean apply(WebDriver d) {
+				return pattern.matcher(getCurrentUrl()).find() == matching;
+			}
+		});
+	}
+	
+	/**
+	 * Accept a browser result only if the remote condition is met
+	 * @param remote The remote condition
+	 * @return Returns the predicate
+	 */
+	protected Predicate<Object> confirmedBy(final ExpectedCondition<Boolean> remote) {
+		return new Predicate<Object>() {
+			public boolean apply(Object result) {
+				return Boolean.TRUE.equals(remote.apply(SeleneseWebDriver.this));
+			}
+		};
+	}
+	
+	/**
+	 * Check a remote condition once
+	 * @param condition The condition
+	 * @return Returns true if the condition is met, false otherwise
+	 */
+	protected boolean isMet(ExpectedCondition<Boolean> condition) {
+		try {
+			return Boolean.TRUE.equals(condition.apply(this));
+		}
+		catch(NotFoundException e) { // as WebDriverWait
+			return false;
+		}
+		catch(StaleElementReferenceException e) { // the page changed during the check
+			return false;
+		}
+	}
+	
+	/**
+	 * Wait for a condition by checking it remotely every waitPollInterval
+	 * milliseconds, the interval being multiplied by waitPollBackoff after
+	 * each check (up to {@link #MAX_WAIT_POLL_INTERVAL})
+	 * @param condition The condition
+	 * @param end       The time after which to give up, in milliseconds since the epoch
+	 * @throws TimeoutException if the condition isn't met in time
+	 */
+	protected void pollingWaitFor(ExpectedCondition<Boolean> condition, long end) throws TimeoutException {
+		long start = System.currentTimeMillis(), interval = Math.max(1, getWaitPollInterval());
+		while(true) {
+			if(isMet(condition)) {
+				return;
+			}
+			
+			long remaining = end - System.currentTimeMillis();
+			if(remaining <= 0) {
+				throw new TimeoutException("Timed out after " + (System.currentTimeMillis() - start) + " ms waiting for " + condition);
+			}
+			try {
+				Thread.sleep(Math.min(interval, remaining));
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new WebDriverException(e);
+			}
+			interval = Math.min(MAX_WAIT_POLL_INTERVAL, Math.max(interval, Math.round(interval * getWaitPollBackoff())));
+		}
+	}
+	
 	protected WebElement getElement(SearchContext context, By by) throws ElementNotFoundException, TooManyElementsFoundException {
-		List<WebElement> elements = by.findElements(context);
+		List<WebElement> elements = lookupElements(context, by);
 		if(elements.size() == 0) {
 			if(context == this) {
 				throw new ElementNotFoundException(by);
@@ -146,7 +1023,7 @@ public class SeleneseWebDriver extends RemoteWebDriver implements Loggable {
 	}
 	
 	protected List<WebElement> getElements(SearchContext context, By by) throws ElementNotFoundException {
-		List<WebElement> elements = by.findElements(context);
+		List<WebElement> elements = lookupElements(context, by);
 		if(elements.size() == 0) {
 			if(context == this) {
 				throw new ElementNotFoundException(by);
@@ -166,54 +1043,217 @@ public class SeleneseWebDriver extends RemoteWebDriver implements Loggable {
 		return getElements(this, by);
 	}
 	
-	synchronized public void execute(final SeleneseCommand command) throws InvalidSeleneseCommandException, InterruptedException, WebDriverException, AssertionFailedException, ElementNotFoundException, TooManyElementsFoundException {
-		
-		command.setVariables(storage);
-		
-		try {
-			String compiledCommand = command.toCompiledString();
-			if(!command.toString().equals(compiledCommand)) {
-				getLog().debug("Executing " + compiledCommand);
+	/**
+	 * Find elements together with their state, in a single script call if the
+	 * locator is a Selenese one
+	 * @param by The locator
+	 * @return Returns the elements found
+	 */
+	protected List<ResolvedElement> resolveElements(By by) {
+		List<ResolvedElement> result = new LinkedList<ResolvedElement>();
+		if(by instanceof ElementLocator.Locator) {
+			ElementLocator.Locator locator = (ElementLocator.Locator)by;
+			Object elements = executeScript(RESOLVE_SCRIPT, new Object[] { locator.getType().name(), locator.getValue() });
+			if(elements instanceof List<?>) {
+				for(Object element : (List<?>)elements) {
+					List<?> state = (List<?>)element;
+					result.add(new ResolvedElement((WebElement)state.get(0), Boolean.TRUE.equals(state.get(1)), Boolean.TRUE.equals(state.get(2)), Boolean.TRUE.equals(state.get(3)), "" + state.get(4)));
+				}
 			}
 		}
-		catch (IllegalAccessException e1) {
-			e1.printStackTrace(); // Will never happen as command.setVariables(storage) is executed just before
+		else {
+			for(WebElement element : lookupElements(this, by)) {
+				result.add(new ResolvedElement(element, element.isDisplayed(), element.isEnabled(), element.getAttribute("checked") != null, element.getText()));
+			}
+		}
+		return result;
+	}
+	
+	protected ResolvedElement getResolvedElement(By by) throws ElementNotFoundException, TooManyElementsFoundException {
+		List<ResolvedElement> elements = resolveElements(by);
+		if(elements.size() == 0) {
+			throw new ElementNotFoundException(by);
+		}
+		else if(elements.size() > 1) {
+			throw new TooManyElementsFoundException(by, elements.size());
+		}
+		return elements.get(0);
+	}
+	
+	protected List<ResolvedElement> getResolvedElements(By by) throws ElementNotFoundException {
+		List<ResolvedElement> elements = resolveElements(by);
+		if(elements.size() == 0) {
+			throw new ElementNotFoundException(by);
+		}
+		if(elements.size() > 1) {
+			getLog().warn("Warning: found " + elements.size() + " elements matching " + by);
+		}
+		return elements;
+	}
+	
+	synchronized public void execute(final CompiledCommand command) throws InvalidSeleneseCommandException, InterruptedException, WebDriverException, AssertionFailedException, ElementNotFoundException, TooManyElementsFoundException {
+		
+		lastSynchronizationTime = 0;
+		lastPauseTime = 0;
+		lastWaitTime = 0;
+		lastRoundTripTime = 0;
+		executingCommand = command;
+		boolean checkingErrors = getJavascriptErrorsCheckInterval() > 0;
+		
+		if(command.hasVariables() && getLog().isDebugEnabled()) {
+			getLog().debug("Executing " + command.toString(storage));
 		}
 		
 		try {
-			switch(command.getAction()) {
-				       case assertElementPresent    : Assert.assertNotEqual(0, this.findElements(ElementLocator.parse(command.getArgument(0))).size(), "Can not find element \"" + command.getArgument(0) + "\"");
-				break; case assertElementNotPresent : Assert.assertEqual(0, this.findElements(ElementLocator.parse(command.getArgument(0))).size(), "Element \"" + command.getArgument(0) + "\" is present");
-				break; case assertEval              : { String result = "" + executeScript("return (" + command.getArgument(0) + ")", new Object[0]); Assert.assertEqual(result, command.getArgument(1), "Script \"" + command.getArgument(0) + "\" returned \"" + result + "\""); }
-				break; case assertLocation          : Assert.assertPatternMatches(parsePattern(command.getArgument(0)), getCurrentUrl());
-				break; case assertNotVisible        : Assert.assertFalse(getElement(ElementLocator.parse(command.getArgument(0))).isDisplayed(), "Element \"" + command.getArgument(0) + "\" is visible");
-				break; case assertText              : Assert.assertPatternMatches(parsePattern(command.getArgument(1)), getElement(ElementLocator.parse(command.getArgument(0))).getText());
-				break; case assertVisible           : Assert.assertTrue(getElement(ElementLocator.parse(command.getArgument(0))).isDisplayed(), "Element \"" + command.getArgument(0) + "\" is visible");
-				break; case click                   : for(WebElement e : getElements(ElementLocator.parse(command.getArgument(0)))) if(e.isDisplayed()) e.click();
-				break; case check                   : for(WebElement e : getElements(ElementLocator.parse(command.getArgument(0)))) if(e.isDisplayed() && e.getAttribute("checked") == null) e.click();
-				break; case dragAndDropToObject     : (new Actions(this)).dragAndDrop( getElement(ElementLocator.parse(command.getArgument(0))), getElement(ElementLocator.parse(command.getArgument(1))) ).perform();
-				break; case getEval                 : executeScript(command.getArgument(0), new Object[0]);
-				break; case echo                    : System.out.println(executeScript("return ('" + command.getArgument(0) + "')", new Object[0]));
-				break; case open                    : get(getAbsoluteURL(command.getArgument(0)));
-				break; case pause                   : pause(Long.parseLong(command.getArgument(0)));
-				break; case select                  : { for(WebElement e : getElements(ElementLocator.parse(command.getArgument(0)))) if(e.isDisplayed()) new Select(e).selectByValue( getElement(e,OptionLocator.parse(command.getArgument(1))).getAttribute("value") ); }
-				break; case storeEval               : storage.put(command.getArgument(1), "" + executeScript("return (" + command.getArgument(0) + ")", new Object[0]));
-				break; case type                    : { for(WebElement e : getElements(ElementLocator.parse(command.getArgument(0)))) if(e.isDisplayed()) if(e.isEnabled()) { e.clear(); e.sendKeys(command.getArgument(1)); } else getLog().warn("Warning: element \"" + command.getArgument(0) + "\" is disabled"); }
-				break; case uncheck                 : for(WebElement e : getElements(ElementLocator.parse(command.getArgument(0)))) if(e.isDisplayed() && e.getAttribute("checked") != null) e.click();
-				break; case waitForElementPresent   : { final By by = ElementLocator.parse(command.getArgument(0)); new WebDriverWait(this, getWaitTimeout() / 1000).until(new ExpectedCondition<Boolean>(){ public Boolean apply(WebDriver d) { return d.findElements(by).size() != 0; }}); }
-				break; case waitForElementNotPresent: { final By by = ElementLocator.parse(command.getArgument(0)); new WebDriverWait(this, getWaitTimeout() / 1000).until(new ExpectedCondition<Boolean>(){ public Boolean apply(WebDriver d) { return d.findElements(by).size() == 0; }}); }
-				break; case waitForEval             : { final String script = command.getArgument(0); final String expected = command.getArgument(1); new WebDriverWait(this, getWaitTimeout() / 1000).until(new ExpectedCondition<Boolean>(){ public Boolean apply(WebDriver d) { return ("" + executeScript("return (" + script + ")", new Object[0])).equals(expected); }}); }
-				break; case waitForLocation         : { final Pattern pattern = parsePattern(command.getArgument(0)); new WebDriverWait(this, getWaitTimeout() / 1000).until(new ExpectedCondition<Boolean>(){ public Boolean apply(WebDriver d) { return pattern.matcher(getCurrentUrl()).find(); }}); }
-				break; case waitForNotEval          : { final String script = command.getArgument(0); final String expected = command.getArgument(1); new WebDriverWait(this, getWaitTimeout() / 1000).until(new ExpectedCondition<Boolean>(){ public Boolean apply(WebDriver d) { return !("" + executeScript("return (" + script + ")", new Object[0])).equals(expected); }}); }
-				break; case waitForNotLocation      : { final Pattern pattern = parsePattern(command.getArgument(0)); new WebDriverWait(this, getWaitTimeout() / 1000).until(new ExpectedCondition<Boolean>(){ public Boolean apply(WebDriver d) { return !pattern.matcher(getCurrentUrl()).find(); }}); }
-				break; case waitForVisible          : { final By by = ElementLocator.parse(command.getArgument(0)); new WebDriverWait(this, getWaitTimeout() / 1000).until(new ExpectedCondition<Boolean>(){ public Boolean apply(WebDriver d) { for(WebElement e : d.findElements(by)) if(e.isDisplayed()) return true; return false; }}); }
+			
+			// Collect the errors of the page about to be left
+			if(checkingErrors && command.getAction() == Action.open && commandsSinceErrorsCheck > 0) {
+				checkJavascriptErrors();
+			}
+			
+			// Run the action, looking the elements up again if a cached one is stale before anything has been done
+			elementCacheUsed = false;
+			actionStarted = false;
+			countingRoundTrips = !command.getAction().isWait() && command.getAction() != Action.pause;
+			long start = System.nanoTime();
+			try {
+				executeAction(command);
+			}
+			catch(StaleElementReferenceException e) {
+				if(!elementCacheUsed) {
+					throw e;
+				}
+				clearElementCache();
+				if(actionStarted) {
+					throw e; // part of the action has been done, running it again could repeat it
+				}
+				getLog().debug("Cached element is stale, looking it up again");
+				executeAction(command);
+			}
+			finally {
+				if(command.getAction().isWait()) {
+					lastWaitTime = System.nanoTime() - start;
+				}
+				countingRoundTrips = true;
+			}
+			
+			// The document may have changed
+			if(command.getAction().isInteraction() || command.getAction() == Action.getEval) {
+				clearElementCache();
+			}
+			
+			// Wait for the consequences of the interaction, if any (errors are collected meanwhile)
+			if(isAutoSynchronize() && command.getAction().isInteraction()) {
+				countingRoundTrips = false;
+				start = System.nanoTime();
+				lastSynchronizationTime = synchronize();
+				lastWaitTime += System.nanoTime() - start;
+			}
+			
+			// Otherwise collect errors on a new page, or every javascriptErrorsCheckInterval commands
+			else if(checkingErrors && (command.getAction() == Action.open || ++commandsSinceErrorsCheck >= getJavascriptErrorsCheckInterval())) {
+				checkJavascriptErrors();
 			}
 		}
 		catch(InvalidSeleneseCommandArgumentException e) {
-			throw new InvalidSeleneseCommandException(command, "argument " + e.argument + " is invalid");
+			throw new InvalidSeleneseCommandException(command.getCommand(), "argument " + e.argument + " is invalid" + (e.reason == null ? "" : ": " + e.reason));
+		}
+		finally {
+			countingRoundTrips = false;
+			executingCommand = null;
 		}
-		catch (IllegalAccessException e) {
-			e.printStackTrace(); // (no storage set) Should not happen as we've set storage just before
+	}
+	
+	protected void executeAction(final CompiledCommand command) throws InvalidSeleneseCommandArgumentException, InterruptedException, WebDriverException, AssertionFailedException, ElementNotFoundException, TooManyElementsFoundException {
+		if(isScriptedResolution() && executeResolvedAction(command)) {
+			return;
+		}
+		switch(command.getAction()) {
+			       case assertElementPresent    : Assert.assertNotEqual(0, this.findElements(command.getLocator(0, storage)).size(), "Can not find element \"" + command.getArgument(0, storage) + "\"");
+			break; case assertElementNotPresent : Assert.assertEqual(0, this.findElements(command.getLocator(0, storage)).size(), "Element \"" + command.getArgument(0, storage) + "\" is present");
+			break; case assertEval              : { String result = "" + executeScript("return (" + command.getArgument(0, storage) + ")", new Object[0]); Assert.assertEqual(result, command.getArgument(1, storage), "Script \"" + command.getArgument(0, storage) + "\" returned \"" + result + "\""); }
+			break; case assertLocation          : Assert.assertPatternMatches(command.getPattern(0, storage), getCurrentUrl());
+			break; case assertNotVisible        : Assert.assertFalse(getElement(command.getLocator(0, storage)).isDisplayed(), "Element \"" + command.getArgument(0, storage) + "\" is visible");
+			break; case assertText              : Assert.assertPatternMatches(command.getPattern(1, storage), getElement(command.getLocator(0, storage)).getText());
+			break; case assertVisible           : Assert.assertTrue(getElement(command.getLocator(0, storage)).isDisplayed(), "Element \"" + command.getArgument(0, storage) + "\" is visible");
+			break; case click                   : for(WebElement e : getElements(command.getLocator(0, storage))) if(e.isDisplayed()) e.click();
+			break; case check                   : for(WebElement e : getElements(command.getLocator(0, storage))) if(e.isDisplayed() && e.getAttribute("checked") == null) e.click();
+			break; case dragAndDropToObject     : (new Actions(this)).dragAndDrop( getElement(command.getLocator(0, storage)), getElement(command.getLocator(1, storage)) ).perform();
+			break; case getEval                 : executeScript(command.getArgument(0, storage), new Object[0]);
+			break; case echo                    : System.out.println(executeScript("return ('" + command.getArgument(0, storage) + "')", new Object[0]));
+			break; case open                    : get(getAbsoluteURL(command.getArgument(0, storage)));
+			break; case pause                   : pause(command.getNumber(0, storage));
+			break; case select                  : select(command.getLocator(0, storage), command.getLocator(1, storage));
+			break; case storeEval               : storage.put(command.getArgument(1, storage), "" + executeScript("return (" + command.getArgument(0, storage) + ")", new Object[0]));
+			break; case type                    : { for(WebElement e : getElements(command.getLocator(0, storage))) if(e.isDisplayed()) if(e.isEnabled()) { e.clear(); e.sendKeys(command.getArgument(1, storage)); } else getLog().warn("Warning: element \"" + command.getArgument(0, storage) + "\" is disabled"); }
+			break; case uncheck                 : for(WebElement e : getElements(command.getLocator(0, storage))) if(e.isDisplayed() && e.getAttribute("checked") != null) e.click();
+			break; case waitForElementPresent   : { final By by = command.getLocator(0, storage); waitForElements("present", by, false, new ExpectedCondition<Boolean>(){ public Boolean apply(WebDriver d) { return d.findElements(by).size() != 0; }}); }
+			break; case waitForElementNotPresent: { final By by = command.getLocator(0, storage); waitForElements("notPresent", by, false, new ExpectedCondition<Boolean>(){ public Boolean apply(WebDriver d) { return d.findElements(by).size() == 0; }}); }
+			break; case waitForEval             : { final String script = command.getArgument(0, storage); final String expected = command.getArgument(1, storage); ExpectedCondition<Boolean> remote = new ExpectedCondition<Boolean>(){ public Boolean apply(WebDriver d) { return ("" + executeScript("return (" + script + ")", new Object[0])).equals(expected); }}; waitFor("eval", script, expected, confirmedBy(remote), remote); }
+			break; case waitForLocation         : waitForLocation(command.getPattern(0, storage), true);
+			break; case waitForNotEval          : { final String script = command.getArgument(0, storage); final String expected = command.getArgument(1, storage); ExpectedCondition<Boolean> remote = new ExpectedCondition<Boolean>(){ public Boolean apply(WebDriver d) { return !("" + executeScript("return (" + script + ")", new Object[0])).equals(expected); }}; waitFor("notEval", script, expected, confirmedBy(remote), remote); }
+			break; case waitForNotLocation      : waitForLocation(command.getPattern(0, storage), false);
+			break; case waitForVisible          : { final By by = command.getLocator(0, storage); waitForElements("visible", by, true, new ExpectedCondition<Boolean>(){ public Boolean apply(WebDriver d) { for(WebElement e : d.findElements(by)) if(e.isDisplayed()) return true; return false; }}); }
+		}
+	}
+	
+	/**
+	 * Select an option in the displayed select elements, with a single
+	 * script call if enabled and both locators are Selenese ones, otherwise
+	 * (or if the script fails) with WebDriver's Select
+	 * @param select The select elements locator
+	 * @param option The option locator, relative to each select element
+	 */
+	protected void select(By select, By option) throws ElementNotFoundException, TooManyElementsFoundException {
+		if(isScriptedSelect() && select instanceof ElementLocator.Locator && option instanceof OptionLocator.Locator) {
+			ElementLocator.Locator selectLocator = (ElementLocator.Locator)select;
+			OptionLocator.Locator optionLocator = (OptionLocator.Locator)option;
+			Object result = null;
+			try {
+				result = executeScript(SELECT_SCRIPT, new Object[] { selectLocator.getType().name(), selectLocator.getValue(), optionLocator.getType().name(), optionLocator.getValue() });
+			}
+			catch(WebDriverException e) {
+				getLog().debug("Can't select " + option + " with a script (" + e.getMessage() + "), using WebDriver instead");
+			}
+			if(result instanceof Map<?,?>) {
+				int selects = ((Number)((Map<?,?>)result).get("selects")).intValue();
+				int options = ((Number)((Map<?,?>)result).get("options")).intValue();
+				if(selects == 0) {
+					throw new ElementNotFoundException(select);
+				}
+				if(selects > 1) {
+					getLog().warn("Warning: found " + selects + " elements matching " + select);
+				}
+				if(options == 0) {
+					throw new ElementNotFoundException(option);
+				}
+				else if(options > 1) {
+					throw new TooManyElementsFoundException(option, options);
+				}
+				return;
+			}
+		}
+		for(WebElement e : getElements(select)) if(e.isDisplayed()) new Select(e).selectByValue( getElement(e, option).getAttribute("value") );
+	}
+	
+	/**
+	 * Execute a command using a single script call to find the elements and
+	 * their state (see {@link #resolveElements(By)})
+	 * @param command The command
+	 * @return Returns true if the command has been executed, false if it has
+	 *         to be executed the usual way
+	 */
+	protected boolean executeResolvedAction(final CompiledCommand command) throws InvalidSeleneseCommandArgumentException, WebDriverException, AssertionFailedException, ElementNotFoundException, TooManyElementsFoundException {
+		switch(command.getAction()) {
+			       case assertNotVisible        : Assert.assertFalse(getResolvedElement(command.getLocator(0, storage)).isDisplayed(), "Element \"" + command.getArgument(0, storage) + "\" is visible");
+			break; case assertText              : Assert.assertPatternMatches(command.getPattern(1, storage), getResolvedElement(command.getLocator(0, storage)).getText());
+			break; case assertVisible           : Assert.assertTrue(getResolvedElement(command.getLocator(0, storage)).isDisplayed(), "Element \"" + command.getArgument(0, storage) + "\" is visible");
+			break; case click                   : for(ResolvedElement e : getResolvedElements(command.getLocator(0, storage))) if(e.isDisplayed()) e.getElement().click();
+			break; case check                   : for(ResolvedElement e : getResolvedElements(command.getLocator(0, storage))) if(e.isDisplayed() && !e.isChecked()) e.getElement().click();
+			break; case type                    : { for(ResolvedElement e : getResolvedElements(command.getLocator(0, storage))) if(e.isDisplayed()) if(e.isEnabled()) { e.getElement().clear(); e.getElement().sendKeys(command.getArgument(1, storage)); } else getLog().warn("Warning: element \"" + command.getArgument(0, storage) + "\" is disabled"); }
+			break; case uncheck                 : for(ResolvedElement e : getResolvedElements(command.getLocator(0, storage))) if(e.isDisplayed() && e.isChecked()) e.getElement().click();
+			break; default                      : return false;
 		}
+		return true;
 	}
 }
@@ -3,6 +3,8 @@ package com.github.amercier.selenium.selenese;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import com.github.amercier.selenium.exceptions.InvalidSeleneseCommandArgumentException;
+
 /**
  * String-match Patterns.
  * See {@link http://release.seleniumhq.org/selenium-core/1.0.1/reference.html#patterns}
@@ -10,10 +12,15 @@ import java.util.regex.Pattern;
 public enum StringMatchPattern {
 	
 	PATTERN_REGEXP (Pattern.compile("^regexp:(.*)$")),
-	PATTERN_REGEXPI(Pattern.compile("^regexp:(.*)$/i")),
+	PATTERN_REGEXPI(Pattern.compile("^regexpi:(.*)$")),
 	PATTERN_GLOB   (Pattern.compile("^glob:(.*)$")),
 	PATTERN_EXACT  (Pattern.compile("^(exact:)?(.*)$"));
 	
+	/**
+	 * Parsed patterns, by Selenese pattern
+	 */
+	private static final ParseCache<Pattern> CACHE = new ParseCache<Pattern>();
+	
 	private final Pattern pattern;
 	
 	private StringMatchPattern(Pattern pattern) {
@@ -25,7 +32,7 @@ public enum StringMatchPattern {
 		if(matcher.find()) {
 			switch(this) {
 				case PATTERN_REGEXP : return Pattern.compile(matcher.group(1));
-				case PATTERN_REGEXPI: return Pattern.compile(matcher.group(1));
+				case PATTERN_REGEXPI: return Pattern.compile(matcher.group(1), Pattern.CASE_INSENSITIVE);
 				case PATTERN_GLOB   : // 1. Quote everything, including ? and *
 				                      // 2. Replace quoted \? with .? and \* with .*
 				                      return Pattern.compile("^" + Pattern.quote(matcher.group(1)).replaceAll("\\\\([\\?|\\*])", ".$1") + "$");
@@ -34,4 +41,35 @@ public enum StringMatchPattern {
 		}
 		return null; // if not found
 	}
+	
+	/**
+	 * Parse a Selenese string-match pattern, or get it from the cache
+	 * @param selenesePattern The pattern, for instance "glob:*.html"
+	 * @return Returns the corresponding regular expression
+	 * @throws InvalidSeleneseCommandArgumentException
+	 */
+	public static Pattern parse(String selenesePattern) throws InvalidSeleneseCommandArgumentException {
+		Pattern result = CACHE.get(selenesePattern);
+		if(result == null) {
+			result = compile(selenesePattern);
+			CACHE.put(selenesePattern, result);
+		}
+		return result;
+	}
+	
+	/**
+	 * Parse a Selenese string-match pattern
+	 * @param selenesePattern The pattern, for instance "glob:*.html"
+	 * @return Returns the corresponding regular expression
+	 * @throws InvalidSeleneseCommandArgumentException
+	 */
+	protected static Pattern compile(String selenesePattern) throws InvalidSeleneseCommandArgumentException {
+		Pattern result;
+		for(StringMatchPattern stringMatcher : StringMatchPattern.values()) {
+			if((result = stringMatcher.find(selenesePattern)) != null) {
+				return result;
+			}
+		}
+		throw new InvalidSeleneseCommandArgumentException(selenesePattern);
+	}
 }
@@ -0,0 +1,31 @@
+package com.github.amercier.selenium.selenese;
+
+import com.github.amercier.selenium.exceptions.TestCaseLoadingException;
+
+/**
+ * Loads the commands of a test case on demand (see
+ * {@link SeleneseTestCase#setLoader(TestCaseLoader)})
+ */
+public interface TestCaseLoader {
+	
+	/**
+	 * Start loading the commands in the background, unless already started
+	 */
+	public void prefetch();
+	
+	/**
+	 * Get the loaded test case, waiting for the background loading if
+	 * started. The loader doesn't keep the result, so that the commands can
+	 * be released by the test case: they are loaded again by the next call.
+	 * @return Returns the loaded test case
+	 * @throws TestCaseLoadingException if the commands can't be read
+	 */
+	public SeleneseTestCase load() throws TestCaseLoadingException;
+	
+	/**
+	 * Get the size of the test case source, to estimate its duration without
+	 * loading it
+	 * @return Returns the size in bytes
+	 */
+	public long getSize();
+}
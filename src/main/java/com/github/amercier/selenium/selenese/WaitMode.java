@@ -0,0 +1,23 @@
+package com.github.amercier.selenium.selenese;
+
+
+/**
+ * How the waitFor commands wait for their condition
+ */
+public enum WaitMode {
+	
+	/**
+	 * Wait in the browser with an asynchronous script, resolved as soon as
+	 * the condition is met (checked on DOM mutations and location changes,
+	 * and at a low rate for the changes that don't touch the DOM). Falls
+	 * back to POLLING when the condition can't be evaluated in the browser,
+	 * and checks the condition remotely once before timing out.
+	 */
+	ASYNC_SCRIPT,
+	
+	/**
+	 * Check the condition remotely at a given interval, optionally growing
+	 * after each check
+	 */
+	POLLING
+}
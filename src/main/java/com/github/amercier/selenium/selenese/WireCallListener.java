@@ -0,0 +1,14 @@
+package com.github.amercier.selenium.selenese;
+
+public interface WireCallListener {
+
+	/**
+	 * Called after each WebDriver command sent to the remote server
+	 * @param driver      The driver
+	 * @param command     The Selenese command being executed, null if none
+	 * @param wireCommand The WebDriver command name (findElements, executeScript, ...)
+	 * @param duration    The duration of the round trip, in nanoseconds
+	 */
+	void fireWireCall(SeleneseWebDriver driver, CompiledCommand command, String wireCommand, long duration);
+
+}
@@ -5,6 +5,7 @@ import java.io.IOException;
 
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
 
 import com.github.amercier.selenium.selenese.log.DefaultLog;
 import com.github.amercier.selenium.selenese.log.DefaultLoggable;
@@ -21,7 +22,7 @@ public abstract class AbstractTestDocument extends DefaultLoggable {
 	protected File sourceFile;
 	
 	/**
-	 * The parsed document
+	 * The parsed document, built on first access only (see {@link #getDocument()})
 	 */
 	protected Document document;
 	
@@ -36,7 +37,6 @@ public abstract class AbstractTestDocument extends DefaultLoggable {
 	public AbstractTestDocument(File sourceFile, Log log) throws SAXException, IOException {
 		super(log);
 		this.setSourceFile(sourceFile);
-		this.setDocument(new DocumentFactory(sourceFile, log).getDocument());
 	}
 	
 	/**
@@ -70,13 +70,28 @@ public abstract class AbstractTestDocument extends DefaultLoggable {
 	}
 	
 	/**
-	 * Get the parsed document
+	 * Get the parsed document, parsing the source file if not done yet
 	 * @return Returns the parsed document
+	 * @throws SAXException
+	 * @throws IOException
 	 */
-	public Document getDocument() {
+	public Document getDocument() throws SAXException, IOException {
+		if(document == null) {
+			setDocument(new DocumentFactory(sourceFile, getLog()).getDocument());
+		}
 		return document;
 	}
 	
+	/**
+	 * Stream the source file to a SAX handler, without building the document
+	 * @param handler The handler
+	 * @throws SAXException
+	 * @throws IOException
+	 */
+	protected void parse(DefaultHandler handler) throws SAXException, IOException {
+		new DocumentFactory(sourceFile, getLog()).parse(handler);
+	}
+	
 	/**
 	 * Set the parsed document
 	 * @param document The document
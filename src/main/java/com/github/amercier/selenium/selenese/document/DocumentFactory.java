@@ -6,10 +6,13 @@ import java.io.IOException;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 
 import org.w3c.dom.Document;
 import org.xml.sax.EntityResolver;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 
 import com.github.amercier.selenium.selenese.log.DefaultLog;
 import com.github.amercier.selenium.selenese.log.DefaultLoggable;
@@ -75,12 +78,7 @@ public class DocumentFactory extends DefaultLoggable {
 			builder = factory.newDocumentBuilder();
 		
 			// Prevents resolving namespaces (useless)
-			builder.setEntityResolver(new EntityResolver() {
-				public org.xml.sax.InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
-					DocumentFactory.this.getLog().debug("Ignoring entity " + publicId + ", " + systemId);
-					return new org.xml.sax.InputSource(new java.io.StringReader(""));
-				}
-			});
+			builder.setEntityResolver(getEntityResolver());
 			getLog().debug("Parsing " + file.getName() + "...");
 			document = builder.parse(file.toString());
 			getLog().debug("Parsed " + file.getName() + " successfully");
@@ -93,4 +91,40 @@ public class DocumentFactory extends DefaultLoggable {
 		return document;
 	}
 	
+	/**
+	 * Parse the {@link #file source file} with a SAX handler, without
+	 * building a Document. Entities are resolved as with {@link #getDocument()}.
+	 * 
+	 * @param handler The handler
+	 * @throws SAXException
+	 * @throws IOException
+	 */
+	public void parse(DefaultHandler handler) throws SAXException, IOException {
+		try {
+			XMLReader reader = SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+			reader.setEntityResolver(getEntityResolver());
+			reader.setContentHandler(handler);
+			reader.setErrorHandler(handler);
+			getLog().debug("Parsing " + file.getName() + "...");
+			reader.parse(file.toURI().toString());
+			getLog().debug("Parsed " + file.getName() + " successfully");
+		}
+		catch (ParserConfigurationException e) {
+			e.printStackTrace(); // Should not happen as we use the default parser configuration
+		}
+	}
+	
+	/**
+	 * Get the entity resolver ignoring all external entities (DTD...)
+	 * @return Returns the entity resolver
+	 */
+	protected EntityResolver getEntityResolver() {
+		return new EntityResolver() {
+			public org.xml.sax.InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
+				DocumentFactory.this.getLog().debug("Ignoring entity " + publicId + ", " + systemId);
+				return new org.xml.sax.InputSource(new java.io.StringReader(""));
+			}
+		};
+	}
+	
 }
@@ -0,0 +1,162 @@
+package com.github.amercier.selenium.selenese.document;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * SAX handler streaming the rows of the HTML tables of a document to
+ * {@link #row(int, List)} as they are read, without building a DOM. The
+ * cell texts are the same as their DOM text content.
+ */
+public abstract class TableRowsHandler extends DefaultHandler {
+	
+	/**
+	 * A table cell
+	 */
+	public static class Cell {
+		
+		protected final StringBuilder text = new StringBuilder();
+		
+		/**
+		 * Text of the first link of the cell, if any
+		 */
+		protected StringBuilder linkText;
+		
+		/**
+		 * Target of the first link of the cell, if any
+		 */
+		protected String linkHref;
+		
+		public String getText() {
+			return text.toString();
+		}
+		
+		public String getLinkText() {
+			return linkText == null ? null : linkText.toString();
+		}
+		
+		public String getLinkHref() {
+			return linkHref;
+		}
+	}
+	
+	/**
+	 * Whether to read the rows of the first table only
+	 */
+	protected final boolean firstTableOnly;
+	
+	/**
+	 * Number of tables opened so far
+	 */
+	protected int tables;
+	
+	/**
+	 * Depth of the current element in the tables (0 outside of any table)
+	 */
+	protected int tableDepth;
+	
+	/**
+	 * Number of rows read so far
+	 */
+	protected int rows;
+	
+	/**
+	 * Cells of the current row, null outside of a row
+	 */
+	protected List<Cell> cells;
+	
+	/**
+	 * Current cell, null outside of a cell
+	 */
+	protected Cell cell;
+	
+	/**
+	 * Depth of the current element in the current cell and link
+	 */
+	protected int cellDepth, linkDepth;
+	
+	/**
+	 * Create a table rows handler
+	 * @param firstTableOnly Whether to read the rows of the first table only
+	 */
+	public TableRowsHandler(boolean firstTableOnly) {
+		this.firstTableOnly = firstTableOnly;
+	}
+	
+	/**
+	 * Handle a row, once completely read
+	 * @param index The row index, in the document
+	 * @param cells The row cells
+	 * @throws SAXException to stop the parsing
+	 */
+	protected abstract void row(int index, List<Cell> cells) throws SAXException;
+	
+	protected boolean isActive() {
+		return !firstTableOnly || (tables == 1 && tableDepth > 0);
+	}
+	
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+		if(qName.equals("table") && (tableDepth++ == 0)) {
+			tables++;
+		}
+		if(!isActive()) {
+			return;
+		}
+		if(cell != null) {
+			cellDepth++;
+			if(linkDepth > 0) {
+				linkDepth++;
+			}
+			else if(qName.equals("a") && cell.linkText == null) {
+				cell.linkText = new StringBuilder();
+				cell.linkHref = attributes.getValue("href") == null ? "" : attributes.getValue("href");
+				linkDepth = 1;
+			}
+		}
+		else if(qName.equals("tr")) {
+			cells = new ArrayList<Cell>();
+		}
+		else if(qName.equals("td") && cells != null) {
+			cell = new Cell();
+			cellDepth = 1;
+		}
+	}
+	
+	@Override
+	public void endElement(String uri, String localName, String qName) throws SAXException {
+		if(isActive()) {
+			if(cell != null) {
+				if(linkDepth > 0) {
+					linkDepth--;
+				}
+				if(--cellDepth == 0) {
+					cells.add(cell);
+					cell = null;
+				}
+			}
+			else if(qName.equals("tr") && cells != null) {
+				List<Cell> row = cells;
+				cells = null;
+				row(rows++, row);
+			}
+		}
+		if(qName.equals("table") && tableDepth > 0) {
+			tableDepth--;
+		}
+	}
+	
+	@Override
+	public void characters(char[] ch, int start, int length) throws SAXException {
+		if(cell != null && isActive()) {
+			cell.text.append(ch, start, length);
+			if(linkDepth > 0) {
+				cell.linkText.append(ch, start, length);
+			}
+		}
+	}
+}
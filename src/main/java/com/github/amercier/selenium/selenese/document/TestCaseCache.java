@@ -0,0 +1,234 @@
+package com.github.amercier.selenium.selenese.document;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.xml.sax.SAXException;
+
+import com.github.amercier.selenium.exceptions.InvalidSeleneseCommandException;
+import com.github.amercier.selenium.exceptions.UnknownSeleneseCommandException;
+import com.github.amercier.selenium.selenese.Action;
+import com.github.amercier.selenium.selenese.SeleneseCommand;
+import com.github.amercier.selenium.selenese.SeleneseTestCase;
+import com.github.amercier.selenium.selenese.log.DefaultLoggable;
+import com.github.amercier.selenium.selenese.log.Log;
+
+/**
+ * On-disk cache of parsed test cases, so that unchanged files are not parsed
+ * again by the next builds. Entries are named after the SHA-1 hash of the
+ * test case file content, hence a modified file simply misses the cache.
+ * Each entry is a binary file:
+ * 
+ *     int    magic number
+ *     UTF    plugin version (the entry is ignored if it differs)
+ *     int    number of commands
+ *     then for each command:
+ *       UTF  action name
+ *       int  number of arguments
+ *       then for each argument:
+ *         int    length of the UTF-8 bytes
+ *         byte[] the UTF-8 bytes
+ * 
+ * Unreadable entries are ignored and rewritten.
+ */
+public class TestCaseCache extends DefaultLoggable {
+	
+	/**
+	 * Magic number of the entries, to be changed with the format
+	 */
+	public static final int MAGIC = 0x5e1e5e01;
+	
+	/**
+	 * The cache directory
+	 */
+	protected File directory;
+	
+	/**
+	 * Version of the plugin that wrote the entries
+	 */
+	protected String version;
+	
+	protected AtomicInteger hits;
+	
+	protected AtomicInteger misses;
+	
+	/**
+	 * Create a test case cache
+	 * @param directory The cache directory
+	 * @param version   The plugin version
+	 * @param log       The log
+	 */
+	public TestCaseCache(File directory, String version, Log log) {
+		super(log);
+		this.directory = directory;
+		this.version = version == null ? "" : version;
+		this.hits = new AtomicInteger();
+		this.misses = new AtomicInteger();
+	}
+	
+	public File getDirectory() {
+		return directory;
+	}
+	
+	public String getVersion() {
+		return version;
+	}
+	
+	public int getHits() {
+		return hits.get();
+	}
+	
+	public int getMisses() {
+		return misses.get();
+	}
+	
+	/**
+	 * Get a test case from the cache, or parse it and cache it
+	 * @param file The test case file
+	 * @return Returns the test case
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws UnknownSeleneseCommandException
+	 * @throws InvalidSeleneseCommandException
+	 */
+	public SeleneseTestCase getTestCase(File file) throws SAXException, IOException, UnknownSeleneseCommandException, InvalidSeleneseCommandException {
+		File entry = new File(directory, hash(file) + ".bin");
+		SeleneseTestCase testCase = read(entry, file.getName().replaceAll("\\.html$", ""));
+		if(testCase != null) {
+			hits.incrementAndGet();
+			getLog().debug("Read " + file.getName() + " from the parse cache");
+			return testCase;
+		}
+		misses.incrementAndGet();
+		testCase = new TestCaseDocument(file, getLog()).getTestCase();
+		write(entry, testCase);
+		return testCase;
+	}
+	
+	/**
+	 * Compute the SHA-1 hash of a file content
+	 * @param file The file
+	 * @return Returns the hash, in hexadecimal
+	 * @throws IOException
+	 */
+	protected String hash(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		}
+		catch(NoSuchAlgorithmException e) {
+			throw new RuntimeException(e); // SHA-1 is required on every Java platform
+		}
+		InputStream input = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while((read = input.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		}
+		finally {
+			IOUtils.closeQuietly(input);
+		}
+		StringBuilder hash = new StringBuilder();
+		for(byte b : digest.digest()) {
+			hash.append(String.format("%02x", b));
+		}
+		return hash.toString();
+	}
+	
+	/**
+	 * Read an entry
+	 * @param entry The entry file
+	 * @param name  The test case name
+	 * @return Returns the test case, or null if the entry doesn't exist or can't be used
+	 */
+	protected SeleneseTestCase read(File entry, String name) {
+		if(!entry.exists()) {
+			return null;
+		}
+		DataInputStream input = null;
+		try {
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(entry)));
+			if(input.readInt() != MAGIC || !input.readUTF().equals(version)) {
+				return null;
+			}
+			SeleneseTestCase testCase = new SeleneseTestCase(name);
+			for(int commands = input.readInt() ; commands > 0 ; commands--) {
+				Action action = Action.valueOf(input.readUTF());
+				String[] arguments = new String[input.readInt()];
+				for(int i = 0 ; i < arguments.length ; i++) {
+					byte[] bytes = new byte[input.readInt()];
+					input.readFully(bytes);
+					arguments[i] = new String(bytes, "UTF-8");
+				}
+				testCase.addCommand(new SeleneseCommand(action, arguments));
+			}
+			return testCase;
+		}
+		catch(Exception e) { // corrupted or obsolete entry
+			getLog().debug("Ignoring parse cache entry " + entry.getName() + " (" + e + ")");
+			return null;
+		}
+		finally {
+			IOUtils.closeQuietly(input);
+		}
+	}
+	
+	/**
+	 * Write an entry, through a temporary file so that concurrent builds
+	 * never read a partial entry
+	 * @param entry    The entry file
+	 * @param testCase The test case
+	 */
+	protected void write(File entry, SeleneseTestCase testCase) {
+		File temporary = null;
+		DataOutputStream output = null;
+		try {
+			FileUtils.forceMkdir(directory);
+			temporary = File.createTempFile(entry.getName(), ".tmp", directory);
+			output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+			output.writeInt(MAGIC);
+			output.writeUTF(version);
+			SeleneseCommand[] commands = testCase.getCommands();
+			output.writeInt(commands.length);
+			for(SeleneseCommand command : commands) {
+				output.writeUTF(command.getAction().name());
+				String[] arguments = command.getRawArguments();
+				output.writeInt(arguments.length);
+				for(String argument : arguments) {
+					byte[] bytes = argument.getBytes("UTF-8");
+					output.writeInt(bytes.length);
+					output.write(bytes);
+				}
+			}
+			output.close();
+			output = null;
+			if(!temporary.renameTo(entry) && !(entry.delete() && temporary.renameTo(entry))) {
+				throw new IOException("can't rename " + temporary.getName());
+			}
+			temporary = null;
+		}
+		catch(IOException e) {
+			getLog().warn("Can't write parse cache entry " + entry + " (" + e.getMessage() + ")");
+		}
+		finally {
+			IOUtils.closeQuietly(output);
+			if(temporary != null) {
+				temporary.delete();
+			}
+		}
+	}
+}
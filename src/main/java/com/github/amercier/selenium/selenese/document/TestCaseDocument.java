@@ -6,8 +6,6 @@ import java.util.LinkedList;
 import java.util.List;
 
 import org.w3c.dom.DOMException;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import com.github.amercier.selenium.exceptions.InvalidSeleneseCommandException;
@@ -44,7 +42,8 @@ public class TestCaseDocument extends AbstractTestDocument {
 	}
 
 	/**
-	 * Get the test case from the document
+	 * Get the test case from the document. The commands are read while
+	 * streaming the source file, without building the document.
 	 * 
 	 * @return Returns the test case
 	 * @throws InvalidSeleneseCommandException 
@@ -54,46 +53,78 @@ public class TestCaseDocument extends AbstractTestDocument {
 	 * @throws SAXException
 	 * @throws IOException
 	 */
-	public SeleneseTestCase getTestCase() throws DOMException, UnknownSeleneseCommandException, InvalidSeleneseCommandException {
+	public SeleneseTestCase getTestCase() throws DOMException, UnknownSeleneseCommandException, InvalidSeleneseCommandException, SAXException, IOException {
 		
-		NodeList tableRows = document.getElementsByTagName("tr");
-
 		// Create the test case object
-		SeleneseTestCase test = new SeleneseTestCase(sourceFile.getName().replaceAll("\\.html$", ""));
+		final SeleneseTestCase test = new SeleneseTestCase(sourceFile.getName().replaceAll("\\.html$", ""));
 		
-		// Add the commands
-		getLog().debug("Found " + (tableRows.getLength() - 1) + " commands");
-		for (int i = 1; i < tableRows.getLength(); i++) {
-			Element tableRow = (Element) tableRows.item(i);
-			NodeList rowCells = tableRow.getElementsByTagName("td");
-			
-			String actionName = rowCells.item(0).getTextContent();
-			
-			// Arguments
-			List<String> arguments = new LinkedList<String>();
-			for (int j = 1; j < rowCells.getLength(); j++) {
-				if(!rowCells.item(j).getTextContent().trim().equals("")) {
-					arguments.add(rowCells.item(j).getTextContent());
+		// Add the commands, the first row being the title
+		try {
+			parse(new TableRowsHandler(false) {
+				@Override
+				protected void row(int index, List<Cell> cells) throws SAXException {
+					if(index == 0 || cells.isEmpty()) {
+						return;
+					}
+					try {
+						test.addCommand(getCommand(cells));
+					}
+					catch(UnknownSeleneseCommandException e) {
+						throw new SAXException(e);
+					}
+					catch(InvalidSeleneseCommandException e) {
+						throw new SAXException(e);
+					}
 				}
+			});
+		}
+		catch(SAXException e) {
+			if(e.getException() instanceof UnknownSeleneseCommandException) {
+				throw (UnknownSeleneseCommandException)e.getException();
 			}
-			
-			// Create the command
-			Action action = null;
-			try {
-				action = Action.valueOf(actionName);
-			}
-			catch(IllegalArgumentException e) {
-				throw new UnknownSeleneseCommandException(actionName);
+			if(e.getException() instanceof InvalidSeleneseCommandException) {
+				throw (InvalidSeleneseCommandException)e.getException();
 			}
-			SeleneseCommand command = new SeleneseCommand(action, arguments.toArray(new String[0]));
-			getLog().debug("Found " + command);
-			
-			// Add the command to the test case
-			test.addCommand(command);
+			throw e;
 		}
+		getLog().debug("Found " + test.getCommands().length + " commands");
 		
 		return test;
 	}
+	
+	/**
+	 * Create a command from a table row
+	 * @param cells The row cells: command name, then arguments
+	 * @return Returns the command
+	 * @throws UnknownSeleneseCommandException
+	 * @throws InvalidSeleneseCommandException
+	 */
+	protected SeleneseCommand getCommand(List<TableRowsHandler.Cell> cells) throws UnknownSeleneseCommandException, InvalidSeleneseCommandException {
+		String actionName = cells.get(0).getText();
+		
+		// Arguments
+		List<String> arguments = new LinkedList<String>();
+		for (int j = 1; j < cells.size(); j++) {
+			String argument = cells.get(j).getText();
+			if(!argument.trim().equals("")) {
+				arguments.add(argument);
+			}
+		}
+		
+		// Create the command
+		Action action = null;
+		try {
+			action = Action.valueOf(actionName);
+		}
+		catch(IllegalArgumentException e) {
+			throw new UnknownSeleneseCommandException(actionName);
+		}
+		SeleneseCommand command = new SeleneseCommand(action, arguments.toArray(new String[0]));
+		if(getLog().isDebugEnabled()) {
+			getLog().debug("Found " + command);
+		}
+		return command;
+	}
 
 	
 }
@@ -0,0 +1,114 @@
+package com.github.amercier.selenium.selenese.document;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.github.amercier.selenium.exceptions.TestCaseLoadingException;
+import com.github.amercier.selenium.selenese.SeleneseTestCase;
+import com.github.amercier.selenium.selenese.TestCaseLoader;
+import com.github.amercier.selenium.selenese.log.Log;
+
+/**
+ * Loads a test case from its file on an executor. The test case is compiled
+ * at the same time, and its undefined variables logged (on the first load
+ * only, as the test case is loaded again after each release).
+ */
+public class TestCaseFileLoader implements TestCaseLoader {
+	
+	/**
+	 * The test case file
+	 */
+	protected final File file;
+	
+	protected final Log log;
+	
+	/**
+	 * The executor parsing the file
+	 */
+	protected final ExecutorService executor;
+	
+	/**
+	 * Cache of the parsed test cases, null to always parse the file
+	 */
+	protected final TestCaseCache cache;
+	
+	/**
+	 * The loading in progress, null if not started
+	 */
+	protected Future<SeleneseTestCase> loading;
+	
+	/**
+	 * Whether the undefined variables have been logged
+	 */
+	protected final AtomicBoolean warned;
+	
+	/**
+	 * Create a test case loader
+	 * @param file     The test case file
+	 * @param log      The log
+	 * @param executor The executor parsing the file
+	 * @param cache    Cache of the parsed test cases, null to always parse the file
+	 */
+	public TestCaseFileLoader(File file, Log log, ExecutorService executor, TestCaseCache cache) {
+		this.file = file;
+		this.log = log;
+		this.executor = executor;
+		this.cache = cache;
+		this.warned = new AtomicBoolean(false);
+	}
+	
+	public File getFile() {
+		return file;
+	}
+	
+	public long getSize() {
+		return file.length();
+	}
+	
+	synchronized public void prefetch() {
+		if(loading == null) {
+			loading = executor.submit(new Callable<SeleneseTestCase>() {
+				public SeleneseTestCase call() throws Exception {
+					SeleneseTestCase testCase = cache == null ? new TestCaseDocument(file, log).getTestCase() : cache.getTestCase(file);
+					testCase.compile();
+					if(warned.compareAndSet(false, true)) {
+						for(String undefinedVariable : testCase.getUndefinedVariables()) {
+							log.warn("Test case " + testCase.getName() + ": " + undefinedVariable);
+						}
+					}
+					return testCase;
+				}
+			});
+		}
+	}
+	
+	public SeleneseTestCase load() throws TestCaseLoadingException {
+		Future<SeleneseTestCase> loading;
+		synchronized(this) {
+			prefetch();
+			loading = this.loading;
+		}
+		try {
+			return loading.get();
+		}
+		catch(ExecutionException e) {
+			throw new TestCaseLoadingException(file.getName(), e.getCause());
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TestCaseLoadingException(file.getName(), e);
+		}
+		finally {
+			// Concurrent calls share the same loading, the next one after it parses the file again
+			synchronized(this) {
+				if(this.loading == loading) {
+					this.loading = null;
+				}
+			}
+		}
+	}
+}
@@ -2,13 +2,24 @@ package com.github.amercier.selenium.selenese.document;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.w3c.dom.DOMException;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import com.github.amercier.selenium.exceptions.InvalidSeleneseCommandException;
+import com.github.amercier.selenium.exceptions.InvalidTestSuiteException;
 import com.github.amercier.selenium.exceptions.UnknownSeleneseCommandException;
 import com.github.amercier.selenium.selenese.SeleneseTestCase;
 import com.github.amercier.selenium.selenese.SeleneseTestSuite;
@@ -17,6 +28,21 @@ import com.github.amercier.selenium.selenese.log.Log;
 
 public class TestSuiteDocument extends AbstractTestDocument {
 	
+	/**
+	 * Default maximum number of test case files parsed at the same time
+	 */
+	public static final int DEFAULT_PARSE_THREADS = 8;
+	
+	/**
+	 * Maximum number of test case files parsed at the same time
+	 */
+	protected int parseThreads = DEFAULT_PARSE_THREADS;
+	
+	/**
+	 * Cache of the parsed test cases, null to always parse them
+	 */
+	protected TestCaseCache cache;
+	
 	/**
 	 * Create a Test Suite document
 	 * @param sourceFile The XML test suite file
@@ -38,8 +64,38 @@ public class TestSuiteDocument extends AbstractTestDocument {
 		this(sourceFile, new DefaultLog());
 	}
 	
+	public int getParseThreads() {
+		return parseThreads;
+	}
+	
+	/**
+	 * Set the maximum number of test case files parsed at the same time
+	 * @param parseThreads The number of threads
+	 * @return Returns this object to maintain chainability
+	 */
+	public TestSuiteDocument setParseThreads(int parseThreads) {
+		this.parseThreads = parseThreads;
+		return this;
+	}
+	
+	public TestCaseCache getCache() {
+		return cache;
+	}
+	
+	/**
+	 * Set the cache of the parsed test cases
+	 * @param cache The cache, null to always parse the test cases
+	 * @return Returns this object to maintain chainability
+	 */
+	public TestSuiteDocument setCache(TestCaseCache cache) {
+		this.cache = cache;
+		return this;
+	}
+	
 	/**
-	 * Get the test suite from the document
+	 * Get the test suite from the document. The test case files are parsed
+	 * in parallel (see {@link #setParseThreads(int)}), each file only once
+	 * even if referenced several times.
 	 * 
 	 * @return Returns the test suite
 	 * @throws SAXException
@@ -47,37 +103,123 @@ public class TestSuiteDocument extends AbstractTestDocument {
 	 * @throws InvalidSeleneseCommandException 
 	 * @throws DOMException 
 	 * @throws InvalidSeleneseCommandNameException 
+	 * @throws InvalidTestSuiteException if some test case files can't be read, all of them being reported
 	 */
-	public SeleneseTestSuite getTestSuite() throws SAXException, IOException, DOMException, UnknownSeleneseCommandException, InvalidSeleneseCommandException {
+	public SeleneseTestSuite getTestSuite() throws SAXException, IOException, DOMException, UnknownSeleneseCommandException, InvalidSeleneseCommandException, InvalidTestSuiteException {
 		
 		// Create the test suite object
 		SeleneseTestSuite suite = new SeleneseTestSuite(sourceFile.getName().replaceAll("\\.html$", ""));
 		
-		// Add the test cases
-		Element table = (Element) document.getElementsByTagName("table").item(0);
-		NodeList tableRows = table.getElementsByTagName("tr");
+		List<TableRowsHandler.Cell> links = getLinks();
+		List<File> files = getFiles(links);
 		
-		getLog().debug("Found " + (tableRows.getLength() - 1) + " test cases");
-		for (int i = 1; i < tableRows.getLength(); i++) {
-			Element tableRow = (Element) tableRows.item(i);
-			Element cell = (Element) tableRow.getElementsByTagName("td").item(0);
-			Element link = (Element) cell.getElementsByTagName("a").item(0);
+		// Parse each file once, in parallel
+		Map<File,Future<SeleneseTestCase>> testCases = new LinkedHashMap<File,Future<SeleneseTestCase>>();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(getParseThreads(), files.size())));
+		try {
+			for (final File file : files) {
+				if(!testCases.containsKey(file)) {
+					testCases.put(file, executor.submit(new Callable<SeleneseTestCase>() {
+						public SeleneseTestCase call() throws Exception {
+							return getCache() == null ? new TestCaseDocument(file, TestSuiteDocument.this.getLog()).getTestCase() : getCache().getTestCase(file);
+						}
+					}));
+				}
+			}
 			
-			// Add the test case
-			SeleneseTestCase testCase = new TestCaseDocument(
-					new File(
-							sourceFile.getParent(),
-							link.getAttribute("href")
-						),
-					this.getLog()
-				).getTestCase();
-			testCase.setName(link.getTextContent());  // update the name with the one found in the suite
-			
-			suite.addTestCase(testCase);
-			
-			getLog().debug("Added " + link.getTextContent() + " successfully");
+			// Add the test cases in suite order, gathering the errors of all files
+			Map<File,Exception> errors = new LinkedHashMap<File,Exception>();
+			Set<File> added = new HashSet<File>();
+			for (int i = 0; i < links.size(); i++) {
+				File file = files.get(i);
+				try {
+					SeleneseTestCase testCase = testCases.get(file).get();
+					if(!added.add(file)) {
+						testCase = testCase.cloneWithoutState(); // referenced several times
+					}
+					testCase.setName(links.get(i).getLinkText());  // update the name with the one found in the suite
+					
+					suite.addTestCase(testCase);
+					
+					getLog().debug("Added " + links.get(i).getLinkText() + " successfully");
+				}
+				catch(ExecutionException e) {
+					if(!errors.containsKey(file)) {
+						errors.put(file, e.getCause() instanceof Exception ? (Exception)e.getCause() : e);
+					}
+				}
+			}
+			if(!errors.isEmpty()) {
+				throw new InvalidTestSuiteException(sourceFile, errors);
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading " + sourceFile);
+		}
+		finally {
+			executor.shutdownNow();
 		}
 		
 		return suite;
 	}
+	
+	/**
+	 * Get the test suite from the document, without reading the test case
+	 * files: the commands of each test case are loaded by the given executor
+	 * when needed (see {@link SeleneseTestCase#load()} and
+	 * {@link SeleneseTestCase#prefetch()}), and parse errors are only
+	 * reported at that time.
+	 * 
+	 * @param executor The executor parsing the test case files
+	 * @return Returns the test suite
+	 * @throws SAXException
+	 * @throws IOException
+	 */
+	public SeleneseTestSuite getTestSuite(ExecutorService executor) throws SAXException, IOException {
+		SeleneseTestSuite suite = new SeleneseTestSuite(sourceFile.getName().replaceAll("\\.html$", ""));
+		List<TableRowsHandler.Cell> links = getLinks();
+		List<File> files = getFiles(links);
+		for (int i = 0; i < links.size(); i++) {
+			suite.addTestCase(new SeleneseTestCase(links.get(i).getLinkText()).setLoader(new TestCaseFileLoader(files.get(i), getLog(), executor, getCache())));
+		}
+		return suite;
+	}
+	
+	/**
+	 * Read the test case links of the first table, the first row being the title
+	 * @return Returns the first cell of each test case row
+	 * @throws SAXException if a row has no link
+	 * @throws IOException
+	 */
+	protected List<TableRowsHandler.Cell> getLinks() throws SAXException, IOException {
+		final List<TableRowsHandler.Cell> links = new LinkedList<TableRowsHandler.Cell>();
+		parse(new TableRowsHandler(true) {
+			@Override
+			protected void row(int index, List<Cell> cells) throws SAXException {
+				if(index > 0) {
+					if(cells.isEmpty() || cells.get(0).getLinkHref() == null) {
+						throw new SAXException("No test case link found in row " + index + " of " + sourceFile);
+					}
+					links.add(cells.get(0));
+				}
+			}
+		});
+		getLog().debug("Found " + links.size() + " test cases");
+		return links;
+	}
+	
+	/**
+	 * Get the test case files
+	 * @param links The test case links
+	 * @return Returns the canonical file of each link
+	 * @throws IOException
+	 */
+	protected List<File> getFiles(List<TableRowsHandler.Cell> links) throws IOException {
+		List<File> files = new ArrayList<File>(links.size());
+		for (TableRowsHandler.Cell link : links) {
+			files.add(new File(sourceFile.getParent(), link.getLinkHref()).getCanonicalFile());
+		}
+		return files;
+	}
 }
@@ -17,4 +17,8 @@ public class DefaultLog implements Log {
 	public void error(String message) {
 		System.err.println(message);
 	}
+	
+	public boolean isDebugEnabled() {
+		return true;
+	}
 }
@@ -9,4 +9,6 @@ public interface Log {
 	public void warn(String message);
 	
 	public void error(String message);
+	
+	public boolean isDebugEnabled();
 }
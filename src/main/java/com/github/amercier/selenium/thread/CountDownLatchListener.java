@@ -1,6 +1,6 @@
 package com.github.amercier.selenium.thread;
 
-public interface CountDownLatchListener<T extends Thread> {
+public interface CountDownLatchListener<T> {
 
 	void fireCountedDown(ObservableCountDownLatch<T> latch, T item);
 
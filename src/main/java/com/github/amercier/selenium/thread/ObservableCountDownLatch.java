@@ -4,7 +4,7 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 
-public class ObservableCountDownLatch<T extends Thread> extends CountDownLatch {
+public class ObservableCountDownLatch<T> extends CountDownLatch {
 	
 	protected Set<CountDownLatchListener<T>> listeners;
 